@@ -59,7 +59,20 @@ public class DataSet {
         roads = new HashMap<geography.GeographicPoint, HashSet<geography.RoadSegment>>();
         intersections = new HashSet<GeographicPoint>();
         //TODO: change to use intersections for points in graph.
-    	GraphLoader.loadRoadMap(filePath, graph, roads, intersections);
+        // Chains of roads are contracted so routes are found faster; the
+        // joined roads keep their full shape for display.
+    	GraphLoader.loadRoadMap(filePath, graph, roads, intersections, 0, true);
+    }
+
+    /**
+     * Apply road changes to the loaded graph and its road geometry without
+     * reloading the map file. Routes requested while the update is running
+     * are answered from the previous version of the graph.
+     * @param delta The roads to add, remove or retype.
+     */
+    public void applyDelta(roadgraph.RoadDelta delta) {
+        graph.applyDelta(delta);
+        roads = delta.applyToSegments(roads, graph);
     }
 
 	public String getFilePath() {
@@ -101,6 +101,7 @@ implements MapComponentInitializedListener {
 		// create components for fetch tab
 		Button routeButton = new Button("Show Route");
 		Button hideRouteButton = new Button("Hide Route");
+		Button alternativesButton = new Button("Alternatives");
 		Button resetButton = new Button("Reset");
 		Button visualizationButton = new Button("Start Visualization");
 		Image sImage = new Image(MarkerManager.startURL);
@@ -135,7 +136,7 @@ implements MapComponentInitializedListener {
 		manager.setStartLabel(startLabel);
 		manager.setDestinationLabel(endLabel);
 		setupRouteTab(routeTab, fetchBox, startLabel, endLabel, pointLabel, routeButton, hideRouteButton,
-				resetButton, visualizationButton, startButton, destinationButton, searchOptions);
+				alternativesButton, resetButton, visualizationButton, startButton, destinationButton, searchOptions);
 
 		// add tabs to pane, give no option to close
 		TabPane tp = new TabPane(routeTab);
@@ -147,7 +148,7 @@ implements MapComponentInitializedListener {
 			RouteService rs = new RouteService(mapComponent, markerManager);
 			//System.out.println("in map ready : " + this.getClass());
 			// initialize controllers
-			new RouteController(rs, routeButton, hideRouteButton, resetButton, startButton, destinationButton, group, searchOptions, visualizationButton,
+			new RouteController(rs, routeButton, hideRouteButton, alternativesButton, resetButton, startButton, destinationButton, group, searchOptions, visualizationButton,
 					startLabel, endLabel, pointLabel, manager, markerManager);
 			new FetchController(gs, rs, tf, fetchButton, cb, displayButton);
 		});
@@ -241,8 +242,8 @@ implements MapComponentInitializedListener {
 	 * @param box
 	 */
 	private void setupRouteTab(Tab routeTab, VBox fetchBox, Label startLabel, Label endLabel, Label pointLabel,
-			Button showButton, Button hideButton, Button resetButton, Button vButton, Button startButton,
-			Button destButton, List<RadioButton> searchOptions) {
+			Button showButton, Button hideButton, Button alternativesButton, Button resetButton, Button vButton,
+			Button startButton, Button destButton, List<RadioButton> searchOptions) {
 
 		//set up tab layout
 		HBox h = new HBox();
@@ -282,6 +283,7 @@ implements MapComponentInitializedListener {
 		HBox showHideBox = new HBox();
 		showHideBox.getChildren().add(showButton);
 		showHideBox.getChildren().add(hideButton);
+		showHideBox.getChildren().add(alternativesButton);
 		showHideBox.setSpacing(2*MARGIN_VAL);
 
 		v.getChildren().add(fetchBox);
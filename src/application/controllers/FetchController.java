@@ -28,6 +28,8 @@ import mapmaker.MapMaker;
 
 public class FetchController {
     private static final int ROW_COUNT = 5;
+    // largest area, in square degrees, we allow to be fetched
+    private static final double MAX_BOUNDS_SIZE = 1.0;
     private GeneralService generalService;
     private RouteService routeService;
     private Node container;
@@ -122,7 +124,8 @@ public class FetchController {
 
     		// check for valid file name ___.map or mapfiles/___.map
     		if((generalService.checkDataFileName(fName)) != null) {
-    			if (!generalService.checkBoundsSize(.1)) {
+    			// large regions are fetched in tiles by MapMaker, so only refuse truly huge areas
+    			if (!generalService.checkBoundsSize(MAX_BOUNDS_SIZE)) {
     				Alert alert = new Alert(AlertType.ERROR);
         			alert.setTitle("Size Error");
         			alert.setHeaderText("Map Size Error");
@@ -35,12 +35,15 @@ public class RouteController {
 	public static final int DISABLE = 0;
 	public static final int START = 1;
 	public static final int DESTINATION = 2;
+	// routes drawn by the Alternatives button, including the fastest one
+	public static final int MAX_ROUTES = 3;
 
     private int selectedToggle = DIJ;
 
     private RouteService routeService;
     private Button displayButton;
     private Button hideButton;
+    private Button alternativesButton;
     private Button startButton;
     private Button resetButton;
     private Button destinationButton;
@@ -56,7 +59,7 @@ public class RouteController {
 
 
 	public RouteController(RouteService routeService, Button displayButton, Button hideButton,
-						   Button resetButton, Button startButton, Button destinationButton,
+						   Button alternativesButton, Button resetButton, Button startButton, Button destinationButton,
 						   ToggleGroup group, List<RadioButton> searchOptions, Button visualizationButton,
 						   CLabel<geography.GeographicPoint> startLabel, CLabel<geography.GeographicPoint> endLabel,
 						   CLabel<geography.GeographicPoint> pointLabel, SelectManager manager, MarkerManager markerManager) {
@@ -64,6 +67,7 @@ public class RouteController {
         this.routeService = routeService;
 		this.displayButton = displayButton;
         this.hideButton = hideButton;
+        this.alternativesButton = alternativesButton;
 		this.startButton = startButton;
 		this.resetButton = resetButton;
 		this.destinationButton = destinationButton;
@@ -100,6 +104,15 @@ public class RouteController {
         	routeService.hideRoute();
         });
 
+        alternativesButton.setOnAction(e -> {
+            if(startLabel.getItem() != null && endLabel.getItem() != null) {
+        			routeService.displayAlternatives(startLabel.getItem(), endLabel.getItem(), MAX_ROUTES);
+            }
+            else {
+            	MapApp.showErrorAlert("Route Display Error", "Make sure to choose points for both start and destination.");
+            }
+        });
+
         //TODO -- implement
         resetButton.setOnAction( e -> {
 
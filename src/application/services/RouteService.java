@@ -26,7 +26,9 @@ import gmapsfx.javascript.object.LatLong;
 import gmapsfx.javascript.object.LatLongBounds;
 import gmapsfx.javascript.object.MVCArray;
 import gmapsfx.shapes.Polyline;
+import gmapsfx.shapes.PolylineOptions;
 import javafx.scene.control.Button;
+import roadgraph.TourPlanner;
 
 public class RouteService {
 	private GoogleMap map;
@@ -34,6 +36,7 @@ public class RouteService {
     // static variable
     private MarkerManager markerManager;
     private Polyline routeLine;
+    private List<Polyline> alternativeLines = new ArrayList<Polyline>();
     private RouteVisualization rv;
 
 	public RouteService(GoogleMapView mapComponent, MarkerManager manager) {
@@ -81,6 +84,7 @@ public class RouteService {
     public void hideRoute() {
     	if(routeLine != null) {
         	map.removeMapShape(routeLine);
+        	removeAlternativeLines();
         	if(markerManager.getVisualization() != null) {
         		markerManager.clearVisualization();
         	}
@@ -140,6 +144,64 @@ public class RouteService {
         return false;
     }
 
+    /**
+     * Displays a fast round trip that starts at the first stop and visits
+     * all the others in the order found by TourPlanner.
+     * @return returns false if some stop cannot be reached or a route is already displayed
+     */
+    public boolean displayTour(List<geography.GeographicPoint> stops) {
+        if(routeLine != null) {
+        	return false;
+        }
+        if(markerManager.getVisualization() != null) {
+        	markerManager.clearVisualization();
+        }
+        List<geography.GeographicPoint> path =
+        		new TourPlanner(markerManager.getDataSet().getGraph()).planRoute(stops, true);
+        if(path == null) {
+            MapApp.showInfoAlert("Routing Error : ", "Not all stops can be reached");
+        	return false;
+        }
+        markerManager.setSelectMode(false);
+        return displayRoute(constructMapPath(path));
+    }
+
+    /**
+     * Displays the fastest route and up to maxRoutes - 1 alternatives,
+     * each as its own polyline. Alternatives are drawn in grey underneath
+     * the fastest route.
+     * @return returns false if no route was found or one is already displayed
+     */
+    public boolean displayAlternatives(geography.GeographicPoint start, geography.GeographicPoint end, int maxRoutes) {
+        if(routeLine != null) {
+        	return false;
+        }
+        if(markerManager.getVisualization() != null) {
+        	markerManager.clearVisualization();
+        }
+        List<List<geography.GeographicPoint>> routes =
+        		markerManager.getDataSet().getGraph().alternativeRoutes(start, end, maxRoutes);
+        if(routes.isEmpty()) {
+            MapApp.showInfoAlert("Routing Error : ", "No path found");
+        	return false;
+        }
+
+        for(int i = 1; i < routes.size(); i++) {
+        	Polyline line = new Polyline(new PolylineOptions()
+        			.strokeColor("#808080").strokeOpacity(0.7).strokeWeight(4));
+        	MVCArray path = new MVCArray();
+        	for(LatLong point : constructMapPath(routes.get(i))) {
+        		path.push(point);
+        	}
+        	line.setPath(path);
+        	map.addMapShape(line);
+        	alternativeLines.add(line);
+        }
+
+        markerManager.setSelectMode(false);
+        return displayRoute(constructMapPath(routes.get(0)));
+    }
+
 
 
 
@@ -150,7 +212,6 @@ public class RouteService {
      */
     private List<LatLong> constructMapPath(List<geography.GeographicPoint> path) {
     	List<LatLong> retVal = new ArrayList<LatLong>();
-        List<geography.GeographicPoint> segmentList = null;
     	geography.GeographicPoint curr;
     	geography.GeographicPoint next;
 
@@ -180,10 +241,7 @@ public class RouteService {
                 }
 
                 if(chosenSegment != null) {
-                    segmentList = chosenSegment.getPoints(curr, next);
-                    for(geography.GeographicPoint point : segmentList) {
-                        retVal.add(new LatLong(point.getX(), point.getY()));
-                    }
+                    chosenSegment.forEachPoint(curr, next, (lat, lon) -> retVal.add(new LatLong(lat, lon)));
                 }
                 else {
                 	System.err.println("ERROR in constructMapPath : chosenSegment was null");
@@ -202,6 +260,14 @@ public class RouteService {
         if(routeLine != null) {
     		map.removeMapShape(routeLine);
         }
+        removeAlternativeLines();
+	}
+
+	private void removeAlternativeLines() {
+        for(Polyline line : alternativeLines) {
+        	map.removeMapShape(line);
+        }
+        alternativeLines.clear();
 	}
 
 //    private void setMarkerManager(MarkerManager manager) {
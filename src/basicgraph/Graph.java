@@ -1,12 +1,14 @@
 package basicgraph;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
 
 import util.GraphLoader;
 
@@ -24,8 +26,14 @@ public abstract class Graph {
 
 	private int numVertices;
 	private int numEdges;
-	//optional association of String labels to vertices 
-	private Map<Integer,String> vertexLabels;
+	// vertex -> number of edges out of it and into it, kept up to date
+	// by addEdge so degree queries never look at the edges
+	private int[] outDegrees;
+	private int[] inDegrees;
+	//optional association of String labels to vertices, kept both ways:
+	//vertex index -> label, and label -> the first vertex given it
+	private String[] vertexLabels;
+	private Map<String,Integer> labelIndex;
 	
 	/**
 	 * Create a new empty Graph
@@ -33,7 +41,10 @@ public abstract class Graph {
 	public Graph() {
 		numVertices = 0;
 		numEdges = 0;
+		outDegrees = new int[16];
+		inDegrees = new int[16];
 		vertexLabels = null;
+		labelIndex = null;
 	}
 
 	
@@ -63,6 +74,10 @@ public abstract class Graph {
 	 */
 	public int addVertex() {
 		implementAddVertex();
+		if (numVertices == outDegrees.length) {
+			outDegrees = Arrays.copyOf(outDegrees, numVertices * 2);
+			inDegrees = Arrays.copyOf(inDegrees, numVertices * 2);
+		}
 		numVertices ++;
 		return (numVertices-1);
 	}
@@ -82,6 +97,8 @@ public abstract class Graph {
 		numEdges ++;
 		if (v < numVertices && w < numVertices) {
 			implementAddEdge(v , w);			
+			outDegrees[v]++;
+			inDegrees[w]++;
 		}
 		else {
 			throw new IndexOutOfBoundsException();
@@ -91,6 +108,8 @@ public abstract class Graph {
 	/**
 	 * Abstract method implementing adding a new
 	 * edge to the representation of the graph.
+	 * While it runs, getOutDegree(v) and getInDegree(w) do not
+	 * count the new edge yet.
 	 */
 	public abstract void implementAddEdge(int v, int w);
 	
@@ -110,6 +129,64 @@ public abstract class Graph {
 	 */
 	public abstract List<Integer> getInNeighbors(int v);
 	
+	/**
+	 * Get all (out-)neighbors of a given vertex, without copying or
+	 * boxing them.  Subclasses should override this with a view of
+	 * their own representation; this default goes through getNeighbors.
+	 * @param v Index of vertex in question.
+	 * @return Indices of all vertices that are adjacent to v via 
+	 * 	outgoing edges from v, once for each edge.
+	 */
+	public IntStream neighbors(int v) {
+		return getNeighbors(v).stream().mapToInt(Integer::intValue);
+	}
+	
+	/**
+	 * Get all in-neighbors of a given vertex, without copying or
+	 * boxing them.  Subclasses should override this with a view of
+	 * their own representation; this default goes through getInNeighbors.
+	 * @param v Index of vertex in question.
+	 * @return Indices of all vertices that are adjacent to v via 
+	 * 	incoming edges to v, once for each edge.
+	 */
+	public IntStream inNeighbors(int v) {
+		return getInNeighbors(v).stream().mapToInt(Integer::intValue);
+	}
+	
+	/**
+	 * @param v Index of vertex in question.
+	 * @return The number of edges out of v.
+	 */
+	public int getOutDegree(int v) {
+		checkVertex(v);
+		return outDegrees[v];
+	}
+	
+	/**
+	 * @param v Index of vertex in question.
+	 * @return The number of edges into v.
+	 */
+	public int getInDegree(int v) {
+		checkVertex(v);
+		return inDegrees[v];
+	}
+	
+	private void checkVertex(int v) {
+		if (v < 0 || v >= numVertices) {
+			throw new IndexOutOfBoundsException("No vertex " + v);
+		}
+	}
+	
+	/**
+	 * Get the vertices that are 2 away from the vertex in question,
+	 * without boxing them.
+	 * @param v The starting vertex
+	 * @return The vertices at the end of every path of two edges from v,
+	 * 	in the same order as getDistance2.
+	 */
+	public IntStream distance2(int v) {
+		return neighbors(v).flatMap(this::neighbors);
+	}
 	
 
 	/** 
@@ -120,15 +197,17 @@ public abstract class Graph {
 	 * @return The degree sequence of this graph.
 	 */
 	public List<Integer> degreeSequence() {
-		List<Integer> res = new ArrayList<Integer>();
+		int[] degrees = new int[numVertices];
 		for (int i = 0; i < numVertices; i++)
 		{
-			int num = 0;
-			num += getNeighbors(i).size();
-			num += getInNeighbors(i).size();
-			res.add(num);
+			degrees[i] = getOutDegree(i) + getInDegree(i);
+		}
+		Arrays.sort(degrees);
+		List<Integer> res = new ArrayList<Integer>(numVertices);
+		for (int i = numVertices - 1; i >= 0; i--)
+		{
+			res.add(degrees[i]);
 		}
-		Collections.sort(res, Collections.reverseOrder());
 		return res;
 	}
 	
@@ -162,11 +241,14 @@ public abstract class Graph {
 	// Basic graphs may or may not have labeled vertices.
 	
 	/**
-	 * Create a new map of vertex indices to string labels
+	 * Create a new map of vertex indices to string labels,
+	 * and its inverse, so labels can be looked up either way
+	 * without a scan over the vertices.
 	 * (Optional: only if using labeled vertices.)
 	 */
 	public void initializeLabels() {
-		vertexLabels = new HashMap<Integer,String>();
+		vertexLabels = new String[Math.max(16, numVertices)];
+		labelIndex = new HashMap<String,Integer>();
 	}	
 	/**
 	 * Test whether some vertex in the graph is labeled 
@@ -187,7 +269,7 @@ public abstract class Graph {
 	 */
 	public boolean hasVertex(String s)
 	{
-		return vertexLabels.containsValue(s);
+		return labelIndex.containsKey(s);
 	}
 	
 	/**
@@ -196,9 +278,13 @@ public abstract class Graph {
 	 * @param The label to be assigned to this vertex.
 	 */
 	public void addLabel(int v, String s) {
-		if (v < getNumVertices() && !vertexLabels.containsKey(v)) 
+		if (v >= 0 && v < getNumVertices() && getLabel(v) == null) 
 		{
-			vertexLabels.put(v, s);
+			if (v >= vertexLabels.length) {
+				vertexLabels = Arrays.copyOf(vertexLabels, Math.max(v + 1, vertexLabels.length * 2));
+			}
+			vertexLabels[v] = s;
+			labelIndex.putIfAbsent(s, v);
 		}
 		else {
 			System.out.println("ERROR: tried to label a vertex that is out of range or already labeled");
@@ -211,22 +297,23 @@ public abstract class Graph {
 	 * @return The String label of this vertex 
 	 */
 	public String getLabel(int v) {
-		if (vertexLabels.containsKey(v)) {
-			return vertexLabels.get(v);
+		if (v >= 0 && v < vertexLabels.length) {
+			return vertexLabels[v];
 		}
 		else return null;
 	}
 
 	/**
 	 * Report index of vertex with given label.
-	 * (Assume distinct labels for vertices.)
+	 * (Assume distinct labels for vertices; if not,
+	 * the first vertex given the label is reported.)
 	 * @param The String label of the vertex
 	 * @return The integer index of this vertex 
 	 */
 	public int getIndex(String s) {
-		for (Map.Entry<Integer,String> entry : vertexLabels.entrySet()) {
-			if (entry.getValue().equals(s))
-				return entry.getKey();
+		Integer v = labelIndex.get(s);
+		if (v != null) {
+			return v;
 		}
 		System.out.println("ERROR: No vertex with this label");
 		return -1;
@@ -267,6 +354,18 @@ public abstract class Graph {
 		// Test your distance2 code here.
 		System.out.println("Testing distance-two methods on sample graphs...");
 		System.out.println("Goal: implement method using two approaches.");
+		GraphAdjMatrix matrixFromFile = new GraphAdjMatrix();
+		GraphLoader.loadRoutes("data/airports/routesUA.dat", matrixFromFile);
+		boolean sameDistance2 = true;
+		for (int v = 0; v < matrixFromFile.getNumVertices(); v++) {
+			Set<Integer> expected = new TreeSet<Integer>(matrixFromFile.getDistance2(v));
+			Set<Integer> actual = matrixFromFile.getDistance2Set(v);
+			// same vertices, in the same increasing order
+			if (!new ArrayList<Integer>(actual).equals(new ArrayList<Integer>(expected))) {
+				sameDistance2 = false;
+			}
+		}
+		System.out.println("getDistance2Set matches distinct getDistance2 on flight data, should be true: " + sameDistance2);
 
 
 		
@@ -1,30 +1,36 @@
 package basicgraph;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.stream.IntStream;
 
 /** A class that implements a directed graph. 
  * The graph may have self-loops, parallel edges. 
  * Vertices are labeled by integers 0 .. n-1
  * and may also have String labels.
  * The edges of the graph are not labeled.
- * Representation of edges via adjacency lists.
+ * Representation of edges via adjacency lists,
+ * kept in both directions.
  * 
  * @author Hao Zhang
  */
 public class GraphAdjList extends Graph {
 
+	private static final int[] NO_NEIGHBORS = new int[0];
 
-	private Map<Integer,ArrayList<Integer>> adjListsMap;
+	// vertex -> its out-neighbors and in-neighbors, in the first
+	// getOutDegree(v) and getInDegree(v) slots, so no vertex or edge
+	// is ever boxed
+	private int[][] adjLists;
+	private int[][] inLists;
 	
 	/** 
 	 * Create a new empty Graph
 	 */
 	public GraphAdjList () {
-		adjListsMap = new HashMap<Integer,ArrayList<Integer>>();
+		adjLists = new int[16][];
+		inLists = new int[16][];
 	}
 
 	/** 
@@ -32,18 +38,33 @@ public class GraphAdjList extends Graph {
 	 */
 	public void implementAddVertex() {
 		int v = getNumVertices();
-		ArrayList<Integer> neighbors = new ArrayList<Integer>();
-		adjListsMap.put(v,  neighbors);
+		if (v == adjLists.length) {
+			adjLists = Arrays.copyOf(adjLists, v * 2);
+			inLists = Arrays.copyOf(inLists, v * 2);
+		}
+		adjLists[v] = NO_NEIGHBORS;
+		inLists[v] = NO_NEIGHBORS;
 	}
 	
 	/** 
 	 * Implement the abstract method for adding an edge.
+	 * The edge is recorded at both ends, so in-neighbors
+	 * can be listed without looking at the rest of the graph.
 	 * @param v the index of the start point for the edge.
 	 * @param w the index of the end point for the edge.  
 	 */
 	public void implementAddEdge(int v, int w) {
-		(adjListsMap.get(v)).add(w);
-
+		adjLists[v] = append(adjLists[v], getOutDegree(v), w);
+		inLists[w] = append(inLists[w], getInDegree(w), v);
+	}
+	
+	// Put x at index n of list, growing it if it is full.
+	private static int[] append(int[] list, int n, int x) {
+		if (n == list.length) {
+			list = Arrays.copyOf(list, Math.max(4, n * 2));
+		}
+		list[n] = x;
+		return list;
 	}
 	
 	/** 
@@ -57,12 +78,26 @@ public class GraphAdjList extends Graph {
 	 * @return List<Integer> a list of indices of vertices.  
 	 */	
 	public List<Integer> getNeighbors(int v) {
-		return new ArrayList<Integer>(adjListsMap.get(v));
+		List<Integer> neighbors = new ArrayList<Integer>(getOutDegree(v));
+		neighbors(v).forEach(neighbors::add);
+		return neighbors;
+	}
+
+	/** 
+	 * The out-neighbors of a vertex, read straight from its 
+	 * adjacency array.
+	 * 
+	 * @param v the index of vertex.
+	 * @return the indices of the out-neighbors.
+	 */
+	public IntStream neighbors(int v) {
+		return Arrays.stream(adjLists[v], 0, getOutDegree(v));
 	}
 
 	/** 
 	 * Implement the abstract method for finding all 
-	 * in-neighbors of a vertex.
+	 * in-neighbors of a vertex, in the order their edges
+	 * were added.
 	 * If there are multiple edges from another vertex
 	 * to this one, the neighbor
 	 * appears once in the list for each of these edges.
@@ -71,19 +106,21 @@ public class GraphAdjList extends Graph {
 	 * @return List<Integer> a list of indices of vertices.  
 	 */	
 	public List<Integer> getInNeighbors(int v) {
-		List<Integer> inNeighbors = new ArrayList<Integer>();
-		for (int u : adjListsMap.keySet()) {
-			//iterate through all edges in u's adjacency list and 
-			//add u to the inNeighbor list of v whenever an edge
-			//with startpoint u has endpoint v.
-			for (int w : adjListsMap.get(u)) {
-				if (v == w) {
-					inNeighbors.add(u);
-				}
-			}
-		}
+		List<Integer> inNeighbors = new ArrayList<Integer>(getInDegree(v));
+		inNeighbors(v).forEach(inNeighbors::add);
 		return inNeighbors;
 	}
+	
+	/** 
+	 * The in-neighbors of a vertex, read straight from its 
+	 * reverse adjacency array.
+	 * 
+	 * @param v the index of vertex.
+	 * @return the indices of the in-neighbors.
+	 */
+	public IntStream inNeighbors(int v) {
+		return Arrays.stream(inLists[v], 0, getInDegree(v));
+	}
 	 
 
 	/** 
@@ -95,13 +132,7 @@ public class GraphAdjList extends Graph {
 	 */		
 	 public List<Integer> getDistance2(int v) {
 		 List<Integer> res = new ArrayList<Integer>();
-		 for (Integer i : adjListsMap.get(v))
-		 {
-			 for (Integer j : adjListsMap.get(i))
-			 {
-					 res.add(j);
-			 }
-		 }
+		 distance2(v).forEach(res::add);
 		 return res;
 	}
 	
@@ -113,10 +144,10 @@ public class GraphAdjList extends Graph {
 		String s = "Adjacency list";
 		s += " (size " + getNumVertices() + "+" + getNumEdges() + " integers):";
 
-		for (int v : adjListsMap.keySet()) {
+		for (int v = 0; v < getNumVertices(); v++) {
 			s += "\n\t"+v+": ";
-			for (int w : adjListsMap.get(v)) {
-				s += w+", ";
+			for (int i = 0; i < getOutDegree(v); i++) {
+				s += adjLists[v][i]+", ";
 			}
 		}
 		return s;
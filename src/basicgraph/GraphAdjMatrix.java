@@ -1,138 +1,250 @@
 package basicgraph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
-/** A class that implements a directed graph. 
- * The graph may have self-loops, parallel edges. 
+/** A class that implements a directed graph.
+ * The graph may have self-loops, parallel edges.
  * Vertices are labeled by integers 0 .. n-1
  * and may also have String labels.
  * The edges of the graph are not labeled.
- * Representation of edges via an adjacency matrix.
- * 
+ * Representation of edges via an adjacency matrix,
+ * stored one bit per entry.
+ *
+ * Row v of the matrix is a bitset of the out-neighbors of v,
+ * packed 64 to a long, and only as long as its highest neighbor
+ * needs; the transposed matrix is kept the same way for in-neighbors.
+ * Most pairs of vertices have no edge or just one, so the number
+ * of parallel edges is kept apart, for only the pairs that have
+ * more than one. Adding a vertex never copies the matrix: new
+ * vertices start with empty rows, and a row grows only when an
+ * edge is added to it.
+ *
  * @author Hao Zhang
  *
  */
 public class GraphAdjMatrix extends Graph {
 
+	private static final long[] NO_BITS = new long[0];
+
 	private final int defaultNumVertices = 5;
-	private int[][] adjMatrix;
-	
+	// vertex -> bitset of its out-neighbors, and of its in-neighbors
+	private long[][] rows;
+	private long[][] columns;
+	// (v << 32 | w) -> number of edges from v to w, past the first
+	private Map<Long, Integer> extraEdges;
+
 	/** Create a new empty Graph */
 	public GraphAdjMatrix () {
-		adjMatrix = new int[defaultNumVertices][defaultNumVertices];
+		rows = new long[defaultNumVertices][];
+		columns = new long[defaultNumVertices][];
+		extraEdges = new HashMap<Long, Integer>();
 	}
-	
-	/** 
+
+	/**
 	 * Implement the abstract method for adding a vertex.
-	 * If need to increase dimensions of matrix, double them
-	 * to amortize cost. 
+	 * If need to increase the number of rows, double it
+	 * to amortize cost. Only the references to the rows
+	 * are copied, never their bits.
 	 */
 	public void implementAddVertex() {
 		int v = getNumVertices();
-		if (v >= adjMatrix.length) {
-			int[][] newAdjMatrix = new int[v*2][v*2];
-			for (int i = 0; i < adjMatrix.length; i ++) {
-				for (int j = 0; j < adjMatrix.length; j ++) {
-					newAdjMatrix[i][j] = adjMatrix[i][j];
-				}
-			}
-			adjMatrix = newAdjMatrix;
+		if (v >= rows.length) {
+			rows = Arrays.copyOf(rows, v*2);
+			columns = Arrays.copyOf(columns, v*2);
 		}
+		rows[v] = NO_BITS;
+		columns[v] = NO_BITS;
 	}
-	
-	/** 
+
+	/**
 	 * Implement the abstract method for adding an edge.
 	 * Allows for multiple edges between two points:
-	 * the entry at row v, column w stores the number of such edges.
+	 * the bit at row v, column w is set by the first such edge,
+	 * and any more are counted in extraEdges.
 	 * @param v the index of the start point for the edge.
-	 * @param w the index of the end point for the edge.  
-	 */	
+	 * @param w the index of the end point for the edge.
+	 */
 	public void implementAddEdge(int v, int w) {
-		adjMatrix[v][w] += 1;
+		if (hasBit(rows[v], w)) {
+			extraEdges.merge(key(v, w), 1, Integer::sum);
+			return;
+		}
+		rows[v] = setBit(rows[v], w);
+		columns[w] = setBit(columns[w], v);
+	}
+
+	private static long key(int v, int w) {
+		return (long) v << 32 | w;
+	}
+
+	private static boolean hasBit(long[] bits, int i) {
+		return (i >> 6) < bits.length && (bits[i >> 6] & (1L << i)) != 0;
 	}
-	
-	/** 
-	 * Implement the abstract method for finding all 
+
+	// Set bit i, growing the bitset if it is too short.
+	private static long[] setBit(long[] bits, int i) {
+		int word = i >> 6;
+		if (word >= bits.length) {
+			bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+		}
+		bits[word] |= 1L << i;
+		return bits;
+	}
+
+	/**
+	 * @return The number of edges from v to w.
+	 */
+	private int countEdges(int v, int w) {
+		if (!hasBit(rows[v], w)) {
+			return 0;
+		}
+		if (extraEdges.isEmpty()) {
+			return 1;
+		}
+		return 1 + extraEdges.getOrDefault(key(v, w), 0);
+	}
+
+	// The indices of the set bits, in increasing order.
+	private static IntStream bits(long[] bits) {
+		IntStream.Builder indices = IntStream.builder();
+		for (int word = 0; word < bits.length; word++) {
+			long b = bits[word];
+			while (b != 0) {
+				indices.add(word * 64 + Long.numberOfTrailingZeros(b));
+				b &= b - 1;
+			}
+		}
+		return indices.build();
+	}
+
+	/**
+	 * Implement the abstract method for finding all
 	 * out-neighbors of a vertex.
 	 * If there are multiple edges between the vertex
 	 * and one of its out-neighbors, this neighbor
 	 * appears once in the list for each of these edges.
-	 * 
+	 *
 	 * @param v the index of vertex.
-	 * @return List<Integer> a list of indices of vertices.  
-	 */	
+	 * @return List<Integer> a list of indices of vertices.
+	 */
 	public List<Integer> getNeighbors(int v) {
-		List<Integer> neighbors = new ArrayList<Integer>();
-		for (int i = 0; i < getNumVertices(); i ++) {
-			for (int j=0; j< adjMatrix[v][i]; j ++) {
-				neighbors.add(i);
-			}
-		}
+		List<Integer> neighbors = new ArrayList<Integer>(getOutDegree(v));
+		neighbors(v).forEach(neighbors::add);
 		return neighbors;
 	}
-	
-	/** 
-	 * Implement the abstract method for finding all 
+
+	/**
+	 * The out-neighbors of a vertex, in increasing order,
+	 * found from the set bits of its row.
+	 *
+	 * @param v the index of vertex.
+	 * @return the indices of the out-neighbors.
+	 */
+	public IntStream neighbors(int v) {
+		if (extraEdges.isEmpty()) {
+			return bits(rows[v]);
+		}
+		return bits(rows[v]).flatMap(w -> IntStream.generate(() -> w).limit(countEdges(v, w)));
+	}
+
+	/**
+	 * Implement the abstract method for finding all
 	 * in-neighbors of a vertex.
 	 * If there are multiple edges from another vertex
 	 * to this one, the neighbor
 	 * appears once in the list for each of these edges.
-	 * 
+	 *
 	 * @param v the index of vertex.
-	 * @return List<Integer> a list of indices of vertices.  
+	 * @return List<Integer> a list of indices of vertices.
 	 */
 	public List<Integer> getInNeighbors(int v) {
-		List<Integer> inNeighbors = new ArrayList<Integer>();
-		for (int i = 0; i < getNumVertices(); i ++) {
-			for (int j=0; j< adjMatrix[i][v]; j++) {
-				inNeighbors.add(i);
-			}
-		}
+		List<Integer> inNeighbors = new ArrayList<Integer>(getInDegree(v));
+		inNeighbors(v).forEach(inNeighbors::add);
 		return inNeighbors;
 	}
-	
-	/** 
-	 * Implement the abstract method for finding all 
+
+	/**
+	 * The in-neighbors of a vertex, in increasing order,
+	 * found from the set bits of its column.
+	 *
+	 * @param v the index of vertex.
+	 * @return the indices of the in-neighbors.
+	 */
+	public IntStream inNeighbors(int v) {
+		if (extraEdges.isEmpty()) {
+			return bits(columns[v]);
+		}
+		return bits(columns[v]).flatMap(u -> IntStream.generate(() -> u).limit(countEdges(u, v)));
+	}
+
+	/**
+	 * Implement the abstract method for finding all
 	 * vertices reachable by two hops from v.
-	 * Use matrix multiplication to record length 2 paths.
-	 * 
+	 * Use matrix multiplication to record length 2 paths:
+	 * a vertex appears once for each such path, so the
+	 * number of parallel edges along it counts.
+	 *
 	 * @param v the index of vertex.
-	 * @return List<Integer> a list of indices of vertices.  
-	 */	
+	 * @return List<Integer> a list of indices of vertices.
+	 */
 	public List<Integer> getDistance2(int v) {
 		List<Integer> res = new ArrayList<Integer>();
-		for (int i = 0; i < adjMatrix.length; i++)
+		for (int i : bits(rows[v]).toArray())
 		{
-			for ( int j = 0; j < adjMatrix[v][i]; j++)
+			int paths = countEdges(v, i);
+			for (int j = 0; j < paths; j++)
 			{
-				for (int k = 0; k < adjMatrix.length; k++)
-				{
-					for (int l = 0; l < adjMatrix[i][k]; l++)
-					{
-						res.add(k);
-					}
-				}
+				neighbors(i).forEach(res::add);
 			}
 		}
 		return res;
 	}
-	
+
+	/**
+	 * Find the distinct vertices reachable by two hops from v,
+	 * as the OR of the rows of its out-neighbors, a word
+	 * of 64 vertices at a time.
+	 *
+	 * @param v the index of vertex.
+	 * @return the vertices, in increasing order.
+	 */
+	public Set<Integer> getDistance2Set(int v) {
+		long[] reach = NO_BITS;
+		for (int i : bits(rows[v]).toArray()) {
+			long[] row = rows[i];
+			if (row.length > reach.length) {
+				reach = Arrays.copyOf(reach, row.length);
+			}
+			for (int word = 0; word < row.length; word++) {
+				reach[word] |= row[word];
+			}
+		}
+		Set<Integer> res = new LinkedHashSet<Integer>();
+		bits(reach).forEach(res::add);
+		return res;
+	}
+
 	/**
-	 * Generate string representation of adjacency matrix
+	 * Generate string representation of adjacency matrix.
+	 * The header gives the size of the matrix it prints, as it did when
+	 * the matrix was stored as integers, so the output is unchanged.
 	 * @return the String
 	 */
 	public String adjacencyString() {
-		int dim = adjMatrix.length;
+		int dim = getNumVertices();
 		String s = "Adjacency matrix";
 		s += " (size " + dim + "x" + dim + " = " + dim* dim + " integers):";
 		for (int i = 0; i < dim; i ++) {
 			s += "\n\t"+i+": ";
-			for (int j = 0; j < adjMatrix[i].length; j++) {
-			s += adjMatrix[i][j] + ", ";
+			for (int j = 0; j < dim; j++) {
+			s += countEdges(i, j) + ", ";
 			}
 		}
 		return s;
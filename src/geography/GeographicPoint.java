@@ -23,7 +23,7 @@ public class GeographicPoint extends Double {
 	}
 	
     
-    private double getDist(double lat1, double lon1, double lat2, double lon2)
+    static double getDist(double lat1, double lon1, double lat2, double lon2)
     {
     	int R = 6373; // radius of the earth in kilometres
     	double lat1rad = Math.toRadians(lat1);
@@ -0,0 +1,294 @@
+package geography;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The shapes of many roads, delta-encoded into one byte array.
+ *
+ * Each shape is a list of points, added once and given an id, counting
+ * from 0. Coordinates are fixed-point ints, as in PackedPoints. A shape
+ * is stored as its number of points, then the difference from an origin
+ * to the first point, then the difference from each point to the next.
+ * The origin is given when the shape is added and again when it is read;
+ * for the shape of a road it is the intersection the road starts at.
+ * Every number is a zig-zag varint, so the small differences between
+ * nearby points take one or two bytes each instead of the 32 of a
+ * GeographicPoint. An array of offsets gives the start of every shape, so
+ * any shape can be decoded on its own, front to back, without touching
+ * the others.
+ *
+ * The same encoding is used by writeTo and readFrom to save a store to a
+ * file and load it back.
+ *
+ * A store may be read from several threads at once, but not while shapes
+ * are being added.
+ *
+ * @author Hao Zhang
+ */
+public final class GeometryStore {
+	private byte[] bytes;
+	private int numBytes;
+	// shape id -> where it starts in bytes; offsets[numShapes] is numBytes
+	private int[] offsets;
+	private int numShapes;
+
+	/**
+	 * Receives the points of a shape, in order.
+	 */
+	public interface Visitor {
+		void point(double latitude, double longitude);
+	}
+
+	/**
+	 * Create an empty store.
+	 */
+	public GeometryStore()
+	{
+		this(16, 256);
+	}
+
+	private GeometryStore(int shapes, int bytes)
+	{
+		offsets = new int[shapes + 1];
+		this.bytes = new byte[bytes];
+	}
+
+	/**
+	 * @return A store holding just points, as shape 0, with no spare room.
+	 */
+	public static GeometryStore of(List<GeographicPoint> points, GeographicPoint origin)
+	{
+		GeometryStore store = new GeometryStore(1, 5 + 10 * points.size());
+		store.add(points, origin);
+		store.trimToSize();
+		return store;
+	}
+
+	/**
+	 * Add a shape.
+	 * @param points The points of the shape, in order
+	 * @param origin A point near the shape, which must be given again to
+	 *   read it
+	 * @return Its id.
+	 */
+	public int add(List<GeographicPoint> points, GeographicPoint origin)
+	{
+		ensureRoom(5 + 10 * points.size());
+		putVarint(points.size());
+		long lat = PackedPoints.toFixed(origin.getX());
+		long lon = PackedPoints.toFixed(origin.getY());
+		for (GeographicPoint p : points)
+		{
+			int nextLat = PackedPoints.toFixed(p.getX());
+			int nextLon = PackedPoints.toFixed(p.getY());
+			putVarint(zigZag(nextLat - lat));
+			putVarint(zigZag(nextLon - lon));
+			lat = nextLat;
+			lon = nextLon;
+		}
+		if (numShapes + 1 == offsets.length)
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		offsets[++numShapes] = numBytes;
+		return numShapes - 1;
+	}
+
+	/**
+	 * Remove the shape added last, when it turns out not to be needed.
+	 */
+	public void removeLast()
+	{
+		if (numShapes == 0)
+			throw new IllegalStateException("The store is empty");
+		numBytes = offsets[--numShapes];
+		offsets[numShapes + 1] = 0;
+	}
+
+	public int getNumShapes()
+	{
+		return numShapes;
+	}
+
+	/**
+	 * @return The number of bytes the shapes take up.
+	 */
+	public int getNumBytes()
+	{
+		return numBytes;
+	}
+
+	/**
+	 * @return The number of points in shape id.
+	 */
+	public int getNumPoints(int id)
+	{
+		return (int) new Decoder(start(id)).next();
+	}
+
+	/**
+	 * @param origin The origin the shape was added with
+	 * @return The points of shape id, in order, as new GeographicPoints.
+	 */
+	public List<GeographicPoint> get(int id, GeographicPoint origin)
+	{
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(getNumPoints(id));
+		forEach(id, origin, false, (lat, lon) -> points.add(new GeographicPoint(lat, lon)));
+		return points;
+	}
+
+	/**
+	 * Pass the points of shape id to visitor, without creating any
+	 * GeographicPoints.
+	 * @param origin The origin the shape was added with
+	 * @param reverse Whether to visit the points last to first
+	 */
+	public void forEach(int id, GeographicPoint origin, boolean reverse, Visitor visitor)
+	{
+		Decoder in = new Decoder(start(id));
+		int n = (int) in.next();
+		long lat = PackedPoints.toFixed(origin.getX());
+		long lon = PackedPoints.toFixed(origin.getY());
+		if (!reverse)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				lat += unZigZag(in.next());
+				lon += unZigZag(in.next());
+				visitor.point(PackedPoints.toDegrees((int) lat), PackedPoints.toDegrees((int) lon));
+			}
+			return;
+		}
+		// the differences only run forwards, so decode into a buffer first
+		int[] coords = new int[2 * n];
+		for (int i = 0; i < n; i++)
+		{
+			lat += unZigZag(in.next());
+			lon += unZigZag(in.next());
+			coords[2 * i] = (int) lat;
+			coords[2 * i + 1] = (int) lon;
+		}
+		for (int i = n - 1; i >= 0; i--)
+			visitor.point(PackedPoints.toDegrees(coords[2 * i]), PackedPoints.toDegrees(coords[2 * i + 1]));
+	}
+
+	/**
+	 * Drop any spare room at the ends of the arrays.
+	 */
+	public void trimToSize()
+	{
+		bytes = Arrays.copyOf(bytes, numBytes);
+		offsets = Arrays.copyOf(offsets, numShapes + 1);
+	}
+
+	/**
+	 * Write the store out, to be read back with readFrom.
+	 */
+	public void writeTo(DataOutput out) throws IOException
+	{
+		out.writeInt(numShapes);
+		out.writeInt(numBytes);
+		// the offsets follow from the shapes, so only the bytes are written
+		out.write(bytes, 0, numBytes);
+	}
+
+	/**
+	 * Read a store written by writeTo.
+	 * @throws IOException If reading fails or the data is not a store.
+	 */
+	public static GeometryStore readFrom(DataInput in) throws IOException
+	{
+		int numShapes = in.readInt();
+		int numBytes = in.readInt();
+		if (numShapes < 0 || numBytes < 0)
+			throw new IOException("Not a geometry store");
+		GeometryStore store = new GeometryStore(numShapes, numBytes);
+		in.readFully(store.bytes, 0, numBytes);
+		store.numBytes = numBytes;
+		// find where each shape starts by skipping over the ones before it
+		int pos = 0;
+		try {
+			for (int id = 0; id < numShapes; id++)
+			{
+				store.offsets[id] = pos;
+				Decoder skip = store.new Decoder(pos);
+				long n = skip.next();
+				if (n < 0 || n > numBytes)
+					throw new IOException("Not a geometry store");
+				for (long i = 0; i < 2 * n; i++)
+					skip.next();
+				pos = skip.pos;
+			}
+		} catch (IllegalStateException e) {
+			throw new IOException("Not a geometry store", e);
+		}
+		if (pos != numBytes)
+			throw new IOException("Not a geometry store");
+		store.offsets[numShapes] = numBytes;
+		store.numShapes = numShapes;
+		return store;
+	}
+
+	private int start(int id)
+	{
+		if (id < 0 || id >= numShapes)
+			throw new IndexOutOfBoundsException("No shape " + id);
+		return offsets[id];
+	}
+
+	private void ensureRoom(int n)
+	{
+		if (numBytes + n > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(numBytes + n, 2 * bytes.length));
+	}
+
+	// 7 bits at a time, low bits first; the top bit of each byte but the last is set
+	private void putVarint(long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			bytes[numBytes++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[numBytes++] = (byte) value;
+	}
+
+	// Maps small differences of either sign to small non-negative numbers: 0, -1, 1, -2, ...
+	private static long zigZag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	// Reads the varints of one shape in order.
+	private class Decoder {
+		int pos;
+
+		Decoder(int pos)
+		{
+			this.pos = pos;
+		}
+
+		long next()
+		{
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (pos >= numBytes || shift > 63)
+					throw new IllegalStateException("Corrupt geometry store");
+				b = bytes[pos++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package geography;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A list of locations packed into one int array, for structures that
+ * hold many points.
+ *
+ * Latitude and longitude are stored as fixed-point ints in units of
+ * 1e-7 degrees, the precision of OpenStreetMap data, which is about a
+ * centimetre on the ground. A point then takes 8 bytes, where a
+ * GeographicPoint takes 32 and a reference to it. Coordinates with at
+ * most 7 decimals, as read from the map files, come back exactly as they
+ * went in; others are rounded to the nearest 1e-7 degrees.
+ *
+ * GeographicPoints are only created when a point is asked for with get.
+ *
+ * @author Hao Zhang
+ */
+public final class PackedPoints {
+	/** Fixed-point units per degree. */
+	public static final double SCALE = 1e7;
+
+	private static final int[] EMPTY = new int[0];
+
+	// latitude and longitude of point i at 2 * i and 2 * i + 1
+	private int[] coords;
+	private int size;
+
+	/**
+	 * Create an empty list.
+	 */
+	public PackedPoints()
+	{
+		coords = EMPTY;
+	}
+
+	/**
+	 * Create an empty list with room for capacity points.
+	 */
+	public PackedPoints(int capacity)
+	{
+		coords = capacity == 0 ? EMPTY : new int[2 * capacity];
+	}
+
+	/**
+	 * @return The points packed, in the same order, with no spare room.
+	 */
+	public static PackedPoints of(List<GeographicPoint> points)
+	{
+		PackedPoints packed = new PackedPoints(points.size());
+		for (GeographicPoint p : points)
+			packed.add(p);
+		return packed;
+	}
+
+	/**
+	 * Add a point at the end.
+	 * @return Its index.
+	 */
+	public int add(double latitude, double longitude)
+	{
+		if (2 * size == coords.length)
+			coords = Arrays.copyOf(coords, Math.max(8, 2 * coords.length));
+		coords[2 * size] = toFixed(latitude);
+		coords[2 * size + 1] = toFixed(longitude);
+		return size++;
+	}
+
+	public int add(GeographicPoint p)
+	{
+		return add(p.getX(), p.getY());
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public double getLatitude(int i)
+	{
+		return toDegrees(coords[2 * i]);
+	}
+
+	public double getLongitude(int i)
+	{
+		return toDegrees(coords[2 * i + 1]);
+	}
+
+	/**
+	 * @return Point i, as a new GeographicPoint.
+	 */
+	public GeographicPoint get(int i)
+	{
+		return new GeographicPoint(getLatitude(i), getLongitude(i));
+	}
+
+	/**
+	 * @return The distance in km from point i to other, without creating
+	 *   a GeographicPoint for point i.
+	 */
+	public double distance(int i, GeographicPoint other)
+	{
+		return GeographicPoint.getDist(getLatitude(i), getLongitude(i), other.getX(), other.getY());
+	}
+
+	/**
+	 * @return All the points, in order, as new GeographicPoints.
+	 */
+	public List<GeographicPoint> toList()
+	{
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(size);
+		for (int i = 0; i < size; i++)
+			points.add(get(i));
+		return points;
+	}
+
+	/**
+	 * Drop any spare room at the end of the array.
+	 */
+	public void trimToSize()
+	{
+		if (coords.length > 2 * size)
+			coords = size == 0 ? EMPTY : Arrays.copyOf(coords, 2 * size);
+	}
+
+	/**
+	 * @return degrees in fixed-point units, rounded to the nearest.
+	 */
+	public static int toFixed(double degrees)
+	{
+		return (int) Math.round(degrees * SCALE);
+	}
+
+	public static double toDegrees(int fixed)
+	{
+		return fixed / SCALE;
+	}
+}
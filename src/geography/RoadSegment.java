@@ -16,7 +16,10 @@ public class RoadSegment {
 	private GeographicPoint point1;
 	private GeographicPoint point2;
 	
-	private List<GeographicPoint> geometryPoints;
+	// the points between point1 and point2, as shape geometryId of a
+	// store that may be shared with other segments
+	private GeometryStore geometry;
+	private int geometryId;
 	
 	private String roadName;
 	private String roadType;
@@ -27,10 +30,24 @@ public class RoadSegment {
 	public RoadSegment(GeographicPoint pt1, GeographicPoint pt2, 
 						List<GeographicPoint> geometry, String roadName,
 						String roadType, double length)
+	{
+		this(pt1, pt2, GeometryStore.of(geometry, pt1), 0, roadName, roadType, length);
+	}
+	
+	/** Create a segment whose geometry is already in a store, which 
+	 * saves memory when a whole map of segments shares one store.
+	 * @param geometry The store
+	 * @param geometryId The id in the store of the points between
+	 *   pt1 and pt2, which were added with pt1 as their origin
+	 */
+	public RoadSegment(GeographicPoint pt1, GeographicPoint pt2, 
+						GeometryStore geometry, int geometryId, String roadName,
+						String roadType, double length)
 	{
 		point1 = pt1;
 		point2 = pt2;
-		geometryPoints = new ArrayList<GeographicPoint>(geometry);
+		this.geometry = geometry;
+		this.geometryId = geometryId;
 		this.roadName = roadName;
 		this.roadType = roadType;
 		this.length = length;
@@ -49,12 +66,12 @@ public class RoadSegment {
 		List<GeographicPoint> allPoints = new ArrayList<GeographicPoint>();
 		if (point1.equals(start) && point2.equals(end)) {
 			allPoints.add(start);
-			allPoints.addAll(geometryPoints);
+			allPoints.addAll(geometry.get(geometryId, point1));
 			allPoints.add(end);
 		}
 		else if (point2.equals(start) && point1.equals(end)) {
 			allPoints.add(end);
-			allPoints.addAll(geometryPoints);
+			allPoints.addAll(geometry.get(geometryId, point1));
 			allPoints.add(start);
 			Collections.reverse(allPoints);
 		}
@@ -66,6 +83,30 @@ public class RoadSegment {
 		return allPoints;
 	}
 	
+	/** Pass all of the points from start to end, in that order, to
+	 * visitor, without creating a GeographicPoint for each one.
+	 * @param start
+	 * @param end
+	 */
+	public void forEachPoint(GeographicPoint start, GeographicPoint end,
+							GeometryStore.Visitor visitor)
+	{
+		boolean reverse;
+		if (point1.equals(start) && point2.equals(end)) {
+			reverse = false;
+		}
+		else if (point2.equals(start) && point1.equals(end)) {
+			reverse = true;
+		}
+		else {
+			throw new IllegalArgumentException("Start and end points do not "
+					+ "match end points of segment");
+		}
+		visitor.point(start.getX(), start.getY());
+		geometry.forEach(geometryId, point1, reverse, visitor);
+		visitor.point(end.getX(), end.getY());
+	}
+	
 	/** Two road segments are equal if they have the same start and end points
 	 *  and they have the same road name.
 	 */
@@ -98,7 +139,7 @@ public class RoadSegment {
 	{
 		String toReturn = this.roadName + ", " +this.roadType;
 		toReturn += " [" + point1;
-		for (GeographicPoint p : this.geometryPoints) {
+		for (GeographicPoint p : geometry.get(geometryId, point1)) {
 			toReturn += "; " + p;
 		}
 		toReturn += "; " + point2 + "]";
@@ -1,35 +1,46 @@
 package mapmaker;
 
+import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Locale;
 import javax.json.*;
 
 public class DataFetcher {
+    // Overpass endpoint used when none is given; -Dmapmaker.endpoint=... overrides it,
+    // e.g. to point at a local stand-in server for testing.
+    public static final String DEFAULT_ENDPOINT =
+            System.getProperty("mapmaker.endpoint", "http://overpass-api.de/api/interpreter");
+
     private final String[] HIGHWAYS = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential", "motorway_link", "trunk_link", "primary_link", "secondary_link", "tertiary_link", "living_street"};
 
     private String query;
+    private String endpoint;
+    private TileCache cache;
+
     public DataFetcher(float[] bounds) {
+        this(bounds, DEFAULT_ENDPOINT);
+    }
+
+    public DataFetcher(float[] bounds, String endpoint) {
+        this(bounds, endpoint, TileCache.DEFAULT);
+    }
+
+    public DataFetcher(float[] bounds, String endpoint, TileCache cache) {
         this.query = this.constructQuery(bounds);
+        this.endpoint = endpoint;
+        this.cache = cache;
     }
 
     public JsonObject getData() {
-        HttpURLConnection conn = null;
-        try {
-            URL url = new URL("http://overpass-api.de/api/interpreter");
-            conn = (HttpURLConnection)url.openConnection();
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
-            
-            DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
-            wr.writeBytes(this.query);
-            wr.close();
-
-            InputStream is = conn.getInputStream();
-            JsonReader rdr = Json.createReader(is);
-        
+        InputStream is = openStream();
+        if (is == null) {
+            return null;
+        }
+        try (JsonReader rdr = Json.createReader(is)) {
             return rdr.readObject();
         } catch (Exception e) {
             System.out.println(e);
@@ -37,11 +48,42 @@ public class DataFetcher {
         }
     }
 
+    /**
+     * Return the raw response body so that callers can consume it
+     * incrementally instead of building the whole object tree. Responses
+     * are served from the tile cache when this region was fetched before.
+     * @return the response stream, or null if the request failed
+     */
+    public InputStream openStream() {
+        try {
+            return cache.open(query, this::download);
+        } catch (Exception e) {
+            System.out.println(e);
+            return null;
+        }
+    }
+
+    private InputStream download() throws IOException {
+        URL url = new URL(endpoint);
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
+
+        DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
+        wr.writeBytes(this.query);
+        wr.close();
+
+        return new BufferedInputStream(conn.getInputStream());
+    }
+
     public String constructQuery(float[] boundsArray) {
         String q = "[out:json];(";
         String bounds = "(";
+        // Normalize to 6 decimals (about 10 cm) so that the same region always
+        // produces the same query text, and therefore the same cache entry.
         for (int i = 0; i < 4; i++) {
-            bounds += boundsArray[i];
+            bounds += String.format(Locale.ROOT, "%.6f", boundsArray[i]);
             if (i < 3) {
                 bounds += ",";
             } else {
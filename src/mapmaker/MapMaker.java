@@ -1,64 +1,247 @@
 package mapmaker;
 
-import java.io.PrintWriter;
-import java.util.HashMap;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.json.*;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import util.LongLongHashMap;
 
 public class MapMaker {
+    // Coordinates are kept as 1e-7 degree fixed point, which is the precision OSM stores.
+    private static final double FIXED_SCALE = 1e7;
+    // Largest tile side, in degrees, requested from Overpass in a single query.
+    static final float TILE_SIZE = 0.1f;
+    // Upper bound on concurrent Overpass requests so we stay polite to the server.
+    static final int MAX_PARALLEL_FETCHES = 4;
+
     float[] bounds;
-    HashMap<Integer, Location> nodes = new HashMap<Integer, Location>();
+    private String endpoint;
 
     public MapMaker(float[] bounds) {
+        this(bounds, DataFetcher.DEFAULT_ENDPOINT);
+    }
+
+    public MapMaker(float[] bounds, String endpoint) {
         this.bounds = bounds;
+        this.endpoint = endpoint;
     }
 
+    /**
+     * Fetch the road data inside the bounds and write it to filename.
+     * Regions larger than one tile are split up and the tiles are fetched
+     * concurrently; ways that cross tile boundaries are written once.
+     */
     public boolean parseData(String filename) {
-        DataFetcher fetcher = new DataFetcher(bounds);
-        JsonObject data = fetcher.getData();
-
-        JsonArray elements = data.getJsonArray("elements");
+        List<float[]> tiles = splitBounds(bounds, TILE_SIZE);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_FETCHES, tiles.size()));
 
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("node")) {
-                nodes.put(elem.getInt("id"), new Location(elem.getJsonNumber("lat").doubleValue(), elem.getJsonNumber("lon").doubleValue()));
+        try (Writer outfile = new BufferedWriter(new FileWriter(filename))) {
+            // ids of the ways already written; also serializes writes to outfile
+            LongLongHashMap writtenWays = new LongLongHashMap();
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (float[] tile : tiles) {
+                results.add(pool.submit(() -> fetchTile(tile, outfile, writtenWays)));
             }
-        }
-
-        PrintWriter outfile;
-        try {
-            outfile = new PrintWriter(filename);
+            boolean success = true;
+            for (Future<Boolean> result : results) {
+                success &= result.get();
+            }
+            return success;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("way")) {
-                String street = elem.getJsonObject("tags").getString("name", "");
-                String type = elem.getJsonObject("tags").getString("highway", "");
-                String oneway = elem.getJsonObject("tags").getString("oneway", "no");
-                List<JsonNumber> nodelist = elem.getJsonArray("nodes").getValuesAs(JsonNumber.class);
-                for (int i = 0; i < nodelist.size() - 1; i++) {
-                    Location start = nodes.get(nodelist.get(i).intValue());
-                    Location end = nodes.get(nodelist.get(i + 1).intValue());
-                    if (start.outsideBounds(bounds) || end.outsideBounds(bounds)) {
-                        continue;
-                    }
+    private boolean fetchTile(float[] tile, Writer outfile, LongLongHashMap writtenWays) throws IOException {
+        InputStream data = new DataFetcher(tile, endpoint).openStream();
+        if (data == null) {
+            return false;
+        }
+        parse(data, outfile, writtenWays);
+        return true;
+    }
+
+    /**
+     * Split bounds into a grid of tiles no larger than tileSize on a side.
+     * Neighbouring tiles share their edge coordinates exactly so that no
+     * gap is left between them.
+     * @param bounds [south, west, north, east]
+     */
+    static List<float[]> splitBounds(float[] bounds, float tileSize) {
+        int rows = tileCount(bounds[2] - bounds[0], tileSize);
+        int cols = tileCount(bounds[3] - bounds[1], tileSize);
+        List<float[]> tiles = new ArrayList<float[]>(rows * cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                tiles.add(new float[] {gridLine(bounds[0], bounds[2], r, rows), gridLine(bounds[1], bounds[3], c, cols),
+                                       gridLine(bounds[0], bounds[2], r + 1, rows), gridLine(bounds[1], bounds[3], c + 1, cols)});
+            }
+        }
+        return tiles;
+    }
 
-                    outfile.println("" + start + end + "\"" + street + "\" " + type);
-                    if (oneway.equals("no")) {
-                        outfile.println("" + end + start + "\"" + street + "\" " + type);
+    // number of tiles needed to cover extent, ignoring float noise in the division
+    private static int tileCount(float extent, float tileSize) {
+        return Math.max(1, (int) Math.ceil(extent / tileSize - 1e-4));
+    }
+
+    private static float gridLine(float low, float high, int i, int count) {
+        return i == count ? high : low + (high - low) * i / count;
+    }
+
+    /**
+     * Walk the Overpass response event by event.  Overpass emits all nodes
+     * before the ways that reference them, so every way can be written to
+     * the output as soon as it has been read.
+     * Segments are clipped against the full bounds, not the tile, so a way
+     * seen by several tiles always produces the same lines; writtenWays
+     * makes sure only the first tile to see it writes them.
+     */
+    void parse(InputStream data, Writer outfile, LongLongHashMap writtenWays) throws IOException {
+        try (JsonParser parser = Json.createParser(data)) {
+            parseElements(parser, outfile, writtenWays);
+        }
+    }
+
+    private void parseElements(JsonParser parser, Writer outfile, LongLongHashMap writtenWays) throws IOException {
+        // node id -> (lat << 32 | lon), both in fixed point
+        LongLongHashMap nodes = new LongLongHashMap(1 << 16);
+
+        // skip to the "elements" array of the top level object
+        parser.next();
+        while (parser.hasNext()) {
+            Event event = parser.next();
+            if (event == Event.END_OBJECT) {
+                return;
+            }
+            String key = parser.getString();
+            event = parser.next();
+            if (!key.equals("elements") || event != Event.START_ARRAY) {
+                Element.skip(parser, event);
+                continue;
+            }
+
+            Element elem = new Element();
+            StringBuilder lines = new StringBuilder(1024);
+            while (parser.next() == Event.START_OBJECT) {
+                elem.read(parser);
+                if (elem.type.equals("node")) {
+                    nodes.put(elem.id, pack(elem.lat, elem.lon));
+                }
+                else if (elem.type.equals("way")) {
+                    lines.setLength(0);
+                    writeWay(elem, nodes, lines);
+                    synchronized (writtenWays) {
+                        if (writtenWays.putIfAbsent(elem.id, 0)) {
+                            outfile.append(lines);
+                        }
                     }
                 }
             }
         }
-        outfile.close();
-        return true;
+    }
+
+    private void writeWay(Element way, LongLongHashMap nodes, StringBuilder lines) {
+        for (int i = 0; i < way.nodeCount - 1; i++) {
+            long start = nodes.get(way.nodes[i], Long.MIN_VALUE);
+            long end = nodes.get(way.nodes[i + 1], Long.MIN_VALUE);
+            if (start == Long.MIN_VALUE || end == Long.MIN_VALUE) {
+                continue;
+            }
+            if (outsideBounds(start, bounds) || outsideBounds(end, bounds)) {
+                continue;
+            }
+
+            writeSegment(start, end, way, lines);
+            if (way.oneway.equals("no")) {
+                writeSegment(end, start, way, lines);
+            }
+        }
+    }
+
+    private static void writeSegment(long start, long end, Element way, StringBuilder lines) {
+        appendLocation(lines, start);
+        appendLocation(lines, end);
+        lines.append('"').append(way.name).append("\" ").append(way.highway).append('\n');
+    }
+
+    private static void appendLocation(StringBuilder line, long packed) {
+        line.append(lat(packed)).append(' ').append(lon(packed)).append(' ');
+    }
+
+    static long pack(int lat, int lon) {
+        return ((long) lat << 32) | (lon & 0xFFFFFFFFL);
+    }
+
+    static double lat(long packed) {
+        return (int) (packed >> 32) / FIXED_SCALE;
+    }
+
+    static double lon(long packed) {
+        return (int) packed / FIXED_SCALE;
+    }
+
+    /**
+     * @param bounds [south, west, north, east]
+     */
+    static boolean outsideBounds(long packed, float[] bounds) {
+        double lat = lat(packed);
+        double lon = lon(packed);
+        return (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
+    }
+
+    /**
+     * Convert a decimal degree string to 1e-7 fixed point without going
+     * through BigDecimal or double.
+     */
+    static int toFixed(String s) {
+        if (s.indexOf('e') >= 0 || s.indexOf('E') >= 0) {
+            return (int) Math.round(Double.parseDouble(s) * FIXED_SCALE);
+        }
+        int i = 0;
+        boolean negative = false;
+        if (s.charAt(0) == '-') {
+            negative = true;
+            i++;
+        }
+        long value = 0;
+        while (i < s.length() && s.charAt(i) != '.') {
+            value = value * 10 + (s.charAt(i++) - '0');
+        }
+        int digits = 0;
+        if (i < s.length()) {
+            i++;
+            while (i < s.length() && digits < 7) {
+                value = value * 10 + (s.charAt(i++) - '0');
+                digits++;
+            }
+            // round half up on the first dropped digit
+            if (i < s.length() && s.charAt(i) >= '5') {
+                value++;
+            }
+        }
+        for (; digits < 7; digits++) {
+            value *= 10;
+        }
+        return (int) (negative ? -value : value);
     }
 
     public static void main(String[] args) {
-        if (args.length != 4) {
+        if (args.length != 4 && args.length != 5) {
             System.out.println("Incorrect number of arguments.");
             System.out.println(args.length);
             return;
@@ -66,7 +249,7 @@ public class MapMaker {
 
         float[] bound_arr = new float[4];
         try {
-            for (int i = 0; i < args.length; i++) {
+            for (int i = 0; i < 4; i++) {
                 bound_arr[i] = Float.parseFloat(args[i]);
             }
         } catch (Exception e) {
@@ -74,29 +257,101 @@ public class MapMaker {
             return;
         }
 
-        MapMaker map = new MapMaker(bound_arr);
+        // optional fifth argument: Overpass endpoint to query instead of the default
+        MapMaker map = args.length == 5 ? new MapMaker(bound_arr, args[4]) : new MapMaker(bound_arr);
         map.parseData("ucsd.map");
     }
 }
 
-class Location {
-    private double lat;
-    private double lon;
+/**
+ * The fields of one Overpass element that we care about.  A single
+ * instance is reused for every element so that parsing does not allocate
+ * per node.
+ */
+class Element {
+    String type;
+    long id;
+    int lat;
+    int lon;
+    long[] nodes = new long[64];
+    int nodeCount;
+    String name;
+    String highway;
+    String oneway;
+
+    // Read the fields of the current object; the parser is positioned just after its START_OBJECT.
+    void read(JsonParser parser) {
+        type = "";
+        nodeCount = 0;
+        name = "";
+        highway = "";
+        oneway = "no";
 
-    public Location(double lat, double lon) {
-        this.lat = lat;
-        this.lon = lon;
+        Event event;
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String key = parser.getString();
+            event = parser.next();
+            if (key.equals("type")) {
+                type = parser.getString();
+            }
+            else if (key.equals("id")) {
+                id = parser.getLong();
+            }
+            else if (key.equals("lat")) {
+                lat = MapMaker.toFixed(parser.getString());
+            }
+            else if (key.equals("lon")) {
+                lon = MapMaker.toFixed(parser.getString());
+            }
+            else if (key.equals("nodes") && event == Event.START_ARRAY) {
+                while (parser.next() == Event.VALUE_NUMBER) {
+                    if (nodeCount == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, nodeCount * 2);
+                    }
+                    nodes[nodeCount++] = parser.getLong();
+                }
+            }
+            else if (key.equals("tags") && event == Event.START_OBJECT) {
+                readTags(parser);
+            }
+            else {
+                skip(parser, event);
+            }
+        }
     }
 
-    public String toString() {
-        return "" + lat + " " + lon + " ";
+    private void readTags(JsonParser parser) {
+        while (parser.next() == Event.KEY_NAME) {
+            String key = parser.getString();
+            Event event = parser.next();
+            if (event != Event.VALUE_STRING) {
+                skip(parser, event);
+            }
+            else if (key.equals("name")) {
+                name = parser.getString();
+            }
+            else if (key.equals("highway")) {
+                highway = parser.getString();
+            }
+            else if (key.equals("oneway")) {
+                oneway = parser.getString();
+            }
+        }
     }
 
-    /**
-     * @param bounds [south, west, north, east]
-     */
-    public boolean outsideBounds(float[] bounds) {
-        return (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
+    static void skip(JsonParser parser, Event event) {
+        if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            event = parser.next();
+            if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+                depth++;
+            }
+            else if (event == Event.END_OBJECT || event == Event.END_ARRAY) {
+                depth--;
+            }
+        }
     }
-        
 }
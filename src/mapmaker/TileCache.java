@@ -0,0 +1,160 @@
+package mapmaker;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of raw Overpass responses.
+ *
+ * Entries are gzip files named by the SHA-256 of the query text, so the
+ * same bounding box and highway filter always map to the same file. The
+ * modification time of a file is bumped on every hit and the least
+ * recently used files are deleted once the cache grows past its size cap.
+ *
+ * The default cache is configured with system properties:
+ *   mapmaker.cache.dir      directory holding the entries (data/cache)
+ *   mapmaker.cache.maxBytes size cap in bytes (512 MB)
+ *   mapmaker.offline        if true, never touch the network
+ */
+public class TileCache {
+    private static final String SUFFIX = ".json.gz";
+
+    public static final TileCache DEFAULT = new TileCache(
+            Paths.get(System.getProperty("mapmaker.cache.dir", "data/cache")),
+            Long.getLong("mapmaker.cache.maxBytes", 512L * 1024 * 1024),
+            Boolean.getBoolean("mapmaker.offline"));
+
+    /** Source of a response that is not in the cache yet. */
+    public interface Fetch {
+        InputStream open() throws IOException;
+    }
+
+    private final Path dir;
+    private final long maxBytes;
+    private volatile boolean offline;
+
+    public TileCache(Path dir, long maxBytes, boolean offline) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.offline = offline;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Return the response for query, reading it from disk when cached and
+     * otherwise downloading it through fetch and storing it first.
+     * @throws IOException if the entry is missing in offline mode, or the
+     *   download fails
+     */
+    public InputStream open(String query, Fetch fetch) throws IOException {
+        Path entry = dir.resolve(key(query) + SUFFIX);
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return read(entry);
+        } catch (NoSuchFileException e) {
+            // not cached (or evicted by another fetch a moment ago)
+        }
+        if (offline) {
+            throw new IOException("Offline mode: no cached data for this region.");
+        }
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "fetch", ".tmp");
+        try (InputStream in = fetch.open();
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // open before evicting so a concurrent fetch cannot delete it under us
+        InputStream in = read(entry);
+        evict(entry);
+        return in;
+    }
+
+    private static InputStream read(Path entry) throws IOException {
+        return new GZIPInputStream(new BufferedInputStream(Files.newInputStream(entry)), 1 << 16);
+    }
+
+    // Delete least recently used entries until the cache fits in maxBytes.
+    // The entry that was just written is never evicted.
+    private synchronized void evict(Path keep) throws IOException {
+        List<Path> entries = new ArrayList<Path>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : files) {
+                entries.add(p);
+                total += Files.size(p);
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(TileCache::lastUsed));
+        for (Path p : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!p.equals(keep)) {
+                try {
+                    long size = Files.size(p);
+                    Files.delete(p);
+                    total -= size;
+                } catch (IOException e) {
+                    // still open or already removed by someone else; try the next one
+                }
+            }
+        }
+    }
+
+    private static long lastUsed(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static String key(String query) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * Finds a few reasonable alternatives to the best route between two
+ * points, using the penalty method.
+ *
+ * The best route is found first. Then, repeatedly, the cost of every road
+ * on the last route found is multiplied by a penalty and the search is run
+ * again, which pushes it onto different roads. A candidate is kept only if
+ * it is not much slower than the best route (its stretch) and does not
+ * share too much of its length with the routes already kept (its overlap).
+ *
+ * Each search is a bidirectional Dijkstra search. The penalties and the
+ * roads already used are kept in a per-thread overlay on the snapshot's
+ * edge costs, stamped like SearchState, so a query only touches the roads
+ * of the routes it finds. With the calling thread's two search states,
+ * which also start in O(1), no query allocates or clears anything of the
+ * size of the graph.
+ *
+ * @author Hao Zhang
+ */
+public class AlternativeRoutes {
+	private final MapGraph graph;
+	private final double maxStretch;
+	private final double maxOverlap;
+	private final double penalty;
+
+	/**
+	 * Create an engine that accepts routes up to 30% slower than the best
+	 * one, sharing at most 60% of their length with earlier routes.
+	 */
+	public AlternativeRoutes(MapGraph graph)
+	{
+		this(graph, 1.3, 0.6, 1.5);
+	}
+
+	/**
+	 * @param graph The graph to search
+	 * @param maxStretch How many times the cost of the best route an
+	 *   alternative may cost, at least 1.
+	 * @param maxOverlap The largest share of an alternative's length, from 0
+	 *   to 1, that may be on routes already found.
+	 * @param penalty The factor, more than 1, applied to the cost of the
+	 *   roads of each route found before searching again.
+	 */
+	public AlternativeRoutes(MapGraph graph, double maxStretch, double maxOverlap, double penalty)
+	{
+		if (maxStretch < 1 || maxOverlap < 0 || maxOverlap > 1 || penalty <= 1)
+			throw new IllegalArgumentException("Need maxStretch >= 1, 0 <= maxOverlap <= 1 and penalty > 1.");
+		this.graph = graph;
+		this.maxStretch = maxStretch;
+		this.maxOverlap = maxOverlap;
+		this.penalty = penalty;
+	}
+
+	/**
+	 * Find up to maxRoutes fastest routes from start to goal.
+	 * @return The routes, best first, each as the list of intersections from
+	 *   start to goal; empty if goal cannot be reached.
+	 */
+	public List<List<GeographicPoint>> find(GeographicPoint start, GeographicPoint goal, int maxRoutes)
+	{
+		return find(start, goal, maxRoutes, Weighting.TIME);
+	}
+
+	/**
+	 * Find up to maxRoutes cheapest routes from start to goal under a cost model.
+	 * @return The routes, best first, each as the list of intersections from
+	 *   start to goal; empty if goal cannot be reached.
+	 */
+	public List<List<GeographicPoint>> find(GeographicPoint start, GeographicPoint goal, int maxRoutes,
+			Weighting weighting)
+	{
+		List<List<GeographicPoint>> routes = new ArrayList<List<GeographicPoint>>();
+		RoadNetwork net = graph.network();
+		int s = net.indexOf(start);
+		int g = net.indexOf(goal);
+		if (s < 0 || g < 0 || maxRoutes <= 0 || !net.components().mayReach(s, g))
+			return routes;
+		if (s == g)
+		{
+			routes.add(new ArrayList<GeographicPoint>(Collections.singletonList(start)));
+			return routes;
+		}
+		double[] weights = MapGraph.edgeWeights(net, weighting);
+		int[][] in = net.in();
+		SearchState forward = SearchState.forCurrentThread();
+		SearchState backward = SearchState.reverseForCurrentThread();
+		EdgeOverlay overlay = EdgeOverlay.forCurrentThread();
+		overlay.reset(net.numEdges);
+		double bestCost = 0;
+		// every candidate pushes later searches further away; stop once they have drifted too far
+		for (int attempt = 0; attempt < maxRoutes * 4 && routes.size() < maxRoutes; attempt++)
+		{
+			int[] edges = search(net, in, weights, overlay, s, g, forward, backward);
+			if (edges == null)
+				break;
+			double cost = 0;
+			double length = 0;
+			double shared = 0;
+			for (int e : edges)
+			{
+				cost += weights[e];
+				length += net.roads[e].getLength();
+				if (overlay.isUsed(e))
+					shared += net.roads[e].getLength();
+				overlay.penalize(e, penalty);
+			}
+			if (routes.isEmpty())
+				bestCost = cost;
+			else if (cost > bestCost * maxStretch)
+				break;
+			else if (shared > length * maxOverlap)
+				continue;
+			List<GeographicPoint> route = new ArrayList<GeographicPoint>(edges.length + 1);
+			route.add(net.points[s]);
+			for (int e : edges)
+			{
+				overlay.use(e);
+				route.add(net.points[net.edgeTo[e]]);
+			}
+			routes.add(route);
+		}
+		return routes;
+	}
+
+	// Bidirectional Dijkstra search from s to g on the penalized costs.
+	// Returns the edges of the cheapest path in order, or null if there is none.
+	private static int[] search(RoadNetwork net, int[][] in, double[] weights, EdgeOverlay overlay,
+			int s, int g, SearchState forward, SearchState backward)
+	{
+		forward.reset(net.getNumVertices());
+		backward.reset(net.getNumVertices());
+		forward.reach(s, 0, -1);
+		forward.push(s, 0);
+		backward.reach(g, 0, -1);
+		backward.push(g, 0);
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+		while (!forward.isHeapEmpty() || !backward.isHeapEmpty())
+		{
+			double forwardKey = forward.isHeapEmpty() ? Double.POSITIVE_INFINITY : forward.peekKey();
+			double backwardKey = backward.isHeapEmpty() ? Double.POSITIVE_INFINITY : backward.peekKey();
+			// no path through an unsettled vertex can beat the best one found
+			if (forwardKey + backwardKey >= best)
+				break;
+			boolean isForward = forwardKey <= backwardKey;
+			SearchState state = isForward ? forward : backward;
+			SearchState other = isForward ? backward : forward;
+			int curr = state.poll();
+			if (state.isSettled(curr))
+				continue;
+			state.settle(curr);
+			double currCost = state.cost(curr);
+			for (int e : isForward ? net.out[curr] : in[curr])
+			{
+				int next = isForward ? net.edgeTo[e] : net.edgeFrom[e];
+				double cost = currCost + overlay.weight(weights, e);
+				if (cost < state.cost(next))
+				{
+					state.reach(next, cost, e);
+					state.push(next, cost);
+				}
+				double total = state.cost(next) + other.cost(next);
+				if (total < best)
+				{
+					best = total;
+					meet = next;
+				}
+			}
+		}
+		if (meet < 0)
+			return null;
+
+		List<Integer> edges = new ArrayList<Integer>();
+		for (int v = meet, e = forward.parentEdge(v); e >= 0; v = net.edgeFrom[e], e = forward.parentEdge(v))
+			edges.add(e);
+		Collections.reverse(edges);
+		for (int v = meet, e = backward.parentEdge(v); e >= 0; v = net.edgeTo[e], e = backward.parentEdge(v))
+			edges.add(e);
+		int[] path = new int[edges.size()];
+		for (int i = 0; i < path.length; i++)
+			path[i] = edges.get(i);
+		return path;
+	}
+
+	/**
+	 * The penalty factor of each edge, and whether it is on a route kept so
+	 * far, for one query. Like SearchState, the arrays are reused across
+	 * queries and an entry only counts if its stamp matches the query's.
+	 */
+	private static final class EdgeOverlay {
+		private static final ThreadLocal<EdgeOverlay> PER_THREAD = new ThreadLocal<EdgeOverlay>() {
+			@Override
+			protected EdgeOverlay initialValue()
+			{
+				return new EdgeOverlay();
+			}
+		};
+
+		private double[] factor = new double[0];
+		private int[] penalizedStamp = new int[0];
+		private int[] usedStamp = new int[0];
+		private int stamp;
+
+		static EdgeOverlay forCurrentThread()
+		{
+			return PER_THREAD.get();
+		}
+
+		// Prepare for a new query over a graph with numEdges edges.
+		void reset(int numEdges)
+		{
+			if (factor.length < numEdges)
+			{
+				int capacity = Math.max(numEdges, factor.length + (factor.length >> 1));
+				factor = new double[capacity];
+				penalizedStamp = new int[capacity];
+				usedStamp = new int[capacity];
+				stamp = 0;
+			}
+			if (++stamp == Integer.MAX_VALUE)
+			{
+				Arrays.fill(penalizedStamp, 0);
+				Arrays.fill(usedStamp, 0);
+				stamp = 1;
+			}
+		}
+
+		double weight(double[] weights, int e)
+		{
+			return penalizedStamp[e] == stamp ? weights[e] * factor[e] : weights[e];
+		}
+
+		void penalize(int e, double penalty)
+		{
+			if (penalizedStamp[e] == stamp)
+				factor[e] *= penalty;
+			else
+			{
+				penalizedStamp[e] = stamp;
+				factor[e] = penalty;
+			}
+		}
+
+		boolean isUsed(int e)
+		{
+			return usedStamp[e] == stamp;
+		}
+
+		void use(int e)
+		{
+			usedStamp[e] = stamp;
+		}
+	}
+}
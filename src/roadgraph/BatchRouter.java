@@ -0,0 +1,218 @@
+package roadgraph;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * Routes large batches of (start, goal) pairs in parallel against one graph.
+ *
+ * Trips are pulled from an iterator on the calling thread and routed by a
+ * fixed ForkJoinPool, one A* search per trip. Each worker thread keeps its
+ * own search state, sized once and reused for every trip it routes, so the
+ * searches share nothing and throughput grows with the number of cores.
+ * Results are handed back on the calling thread, either in the order the
+ * trips came in or as soon as they are done. At most maxInFlight trips are
+ * taken from the iterator before their results are delivered, so a slow
+ * consumer slows down reading rather than filling memory.
+ *
+ * All trips of a batch are routed on the graph as it was when the batch
+ * started, even if roads or travel times change while it runs.
+ *
+ * @author Hao Zhang
+ */
+public class BatchRouter implements AutoCloseable {
+
+	/** A trip to route. */
+	public static class Trip {
+		private final GeographicPoint start;
+		private final GeographicPoint goal;
+
+		public Trip(GeographicPoint start, GeographicPoint goal)
+		{
+			this.start = start;
+			this.goal = goal;
+		}
+
+		public GeographicPoint getStart()
+		{
+			return start;
+		}
+
+		public GeographicPoint getGoal()
+		{
+			return goal;
+		}
+	}
+
+	/** The route found for a trip. */
+	public static class Result {
+		private final long index;
+		private final Trip trip;
+		private final List<GeographicPoint> path;
+		private final double cost;
+		private final RuntimeException error;
+
+		private Result(long index, Trip trip, List<GeographicPoint> path, double cost, RuntimeException error)
+		{
+			this.index = index;
+			this.trip = trip;
+			this.path = path;
+			this.cost = cost;
+			this.error = error;
+		}
+
+		/** @return The position of the trip in the batch, from 0. */
+		public long getIndex()
+		{
+			return index;
+		}
+
+		public Trip getTrip()
+		{
+			return trip;
+		}
+
+		/** @return The intersections from start to goal, or null if there is no path. */
+		public List<GeographicPoint> getPath()
+		{
+			return path;
+		}
+
+		/** @return The cost of the path under the router's weighting, or infinity if there is none. */
+		public double getCost()
+		{
+			return cost;
+		}
+	}
+
+	private final MapGraph graph;
+	private final Weighting weighting;
+	private final int maxInFlight;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Create a router for the fastest routes, with one worker per processor.
+	 */
+	public BatchRouter(MapGraph graph)
+	{
+		this(graph, Weighting.TIME, Runtime.getRuntime().availableProcessors(),
+				Runtime.getRuntime().availableProcessors() * 64);
+	}
+
+	/**
+	 * @param graph The graph to route on
+	 * @param weighting The cost model of the routes
+	 * @param threads The number of worker threads
+	 * @param maxInFlight The most trips read but not yet delivered at any time
+	 */
+	public BatchRouter(MapGraph graph, Weighting weighting, int threads, int maxInFlight)
+	{
+		if (threads < 1 || maxInFlight < 1)
+			throw new IllegalArgumentException("Need at least one thread and one trip in flight.");
+		this.graph = graph;
+		this.weighting = weighting;
+		this.maxInFlight = maxInFlight;
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Route every trip and pass the results to sink on the calling thread.
+	 * @param trips The trips to route; read on the calling thread as
+	 *   capacity frees up.
+	 * @param ordered Whether results are delivered in the order of the
+	 *   trips, or as soon as each one is done.
+	 * @param sink Receives each result; it does not need to be thread-safe.
+	 * @return The number of trips routed.
+	 * @throws InterruptedException If the calling thread is interrupted
+	 *   while waiting for results. Trips already handed out keep running.
+	 */
+	public long route(Iterator<Trip> trips, boolean ordered, Consumer<Result> sink) throws InterruptedException
+	{
+		RoadNetwork net = graph.network();
+		double[] weights = MapGraph.edgeWeights(net, weighting);
+		double estimatePerKm = weighting.minCostPerKm(graph.getSpeedTable().getMaxSpeed());
+		BlockingQueue<Result> done = new LinkedBlockingQueue<Result>();
+		Delivery delivery = new Delivery(ordered, sink);
+		long submitted = 0;
+		while (trips.hasNext())
+		{
+			while (submitted - delivery.delivered >= maxInFlight)
+				delivery.accept(done.take());
+			Trip trip = trips.next();
+			long index = submitted++;
+			pool.execute(() -> done.add(routeOne(net, weights, estimatePerKm, index, trip)));
+			Result result;
+			while ((result = done.poll()) != null)
+				delivery.accept(result);
+		}
+		while (delivery.delivered < submitted)
+			delivery.accept(done.take());
+		return submitted;
+	}
+
+	// Runs on a worker thread, with that thread's search state.
+	private static Result routeOne(RoadNetwork net, double[] weights, double estimatePerKm, long index, Trip trip)
+	{
+		try {
+			int s = net.indexOf(trip.start);
+			int g = net.indexOf(trip.goal);
+			if (s < 0 || g < 0)
+				return new Result(index, trip, null, Double.POSITIVE_INFINITY, null);
+			SearchState state = SearchState.forCurrentThread();
+			if (MapGraph.search(net, s, g, weights, estimatePerKm, state, x -> {}) < 0)
+				return new Result(index, trip, null, Double.POSITIVE_INFINITY, null);
+			return new Result(index, trip, MapGraph.buildPath(net, state, g), state.cost(g), null);
+		} catch (RuntimeException e) {
+			return new Result(index, trip, null, Double.POSITIVE_INFINITY, e);
+		}
+	}
+
+	// Hands results to the sink, holding back ones that finished out of order.
+	private static class Delivery {
+		private final boolean ordered;
+		private final Consumer<Result> sink;
+		private final Map<Long, Result> waiting = new HashMap<Long, Result>();
+		private long delivered;
+
+		Delivery(boolean ordered, Consumer<Result> sink)
+		{
+			this.ordered = ordered;
+			this.sink = sink;
+		}
+
+		void accept(Result result)
+		{
+			if (result.error != null)
+				throw result.error;
+			if (!ordered)
+			{
+				delivered++;
+				sink.accept(result);
+				return;
+			}
+			waiting.put(result.index, result);
+			Result next;
+			while ((next = waiting.remove(delivered)) != null)
+			{
+				delivered++;
+				sink.accept(next);
+			}
+		}
+	}
+
+	/**
+	 * Stop the worker threads once the trips handed out are done.
+	 */
+	public void close()
+	{
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,139 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * Strongly connected components of a graph snapshot, found with Tarjan's
+ * algorithm.
+ *
+ * Two intersections are in the same component if each can be reached from
+ * the other. A route between intersections in different components may
+ * still exist one way, but never both ways; and if start and goal are in
+ * different components with no path between them, a search would visit
+ * everything reachable from start before giving up. Knowing the component
+ * of every vertex lets most of those queries be rejected at once.
+ *
+ * The search is iterative, with explicit stacks, so that long chains of
+ * roads cannot overflow the call stack.
+ *
+ * @author Hao Zhang
+ */
+final class Components {
+	// vertex id -> component id
+	final int[] component;
+	// component id -> number of vertices in it
+	final int[] sizes;
+	// component id -> smallest component id reachable from it
+	final int[] minReach;
+
+	private Components(int[] component, int[] sizes, int[] minReach)
+	{
+		this.component = component;
+		this.sizes = sizes;
+		this.minReach = minReach;
+	}
+
+	/**
+	 * @return true if there may be a path from v to w; false only if there
+	 *   certainly is none.
+	 */
+	boolean mayReach(int v, int w)
+	{
+		int cv = component[v];
+		int cw = component[w];
+		// Tarjan numbers components in reverse topological order, so a path
+		// can only lead from a component to one with a smaller id, and no
+		// smaller than the smallest it reaches
+		return cv == cw || (cw < cv && cw >= minReach[cv]);
+	}
+
+	static Components compute(RoadNetwork net)
+	{
+		int n = net.getNumVertices();
+		int[] index = new int[n];
+		int[] low = new int[n];
+		int[] component = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int stackSize = 0;
+		// the simulated call stack: vertex, and how many of its edges are done
+		int[] calls = new int[n];
+		int[] edgesDone = new int[n];
+		int numCalls = 0;
+		int counter = 0;
+		int numComponents = 0;
+		int[] sizes = new int[16];
+		Arrays.fill(index, -1);
+
+		for (int root = 0; root < n; root++)
+		{
+			if (index[root] >= 0)
+				continue;
+			index[root] = low[root] = counter++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			calls[numCalls++] = root;
+			while (numCalls > 0)
+			{
+				int v = calls[numCalls - 1];
+				int[] edges = net.out[v];
+				if (edgesDone[v] < edges.length)
+				{
+					int w = net.edgeTo[edges[edgesDone[v]++]];
+					if (index[w] < 0)
+					{
+						index[w] = low[w] = counter++;
+						stack[stackSize++] = w;
+						onStack[w] = true;
+						calls[numCalls++] = w;
+					}
+					else if (onStack[w])
+						low[v] = Math.min(low[v], index[w]);
+					continue;
+				}
+				// all of v's edges are done: return from v
+				numCalls--;
+				if (low[v] == index[v])
+				{
+					if (numComponents == sizes.length)
+						sizes = Arrays.copyOf(sizes, numComponents * 2);
+					int w;
+					do {
+						w = stack[--stackSize];
+						onStack[w] = false;
+						component[w] = numComponents;
+						sizes[numComponents]++;
+					} while (w != v);
+					numComponents++;
+				}
+				if (numCalls > 0)
+				{
+					int parent = calls[numCalls - 1];
+					low[parent] = Math.min(low[parent], low[v]);
+				}
+			}
+		}
+
+		sizes = Arrays.copyOf(sizes, numComponents);
+		// visit the vertices component by component, in increasing id, so
+		// every component an edge leads to is finished before its source
+		int[] first = new int[numComponents + 1];
+		for (int c = 0; c < numComponents; c++)
+			first[c + 1] = first[c] + sizes[c];
+		int[] byComponent = new int[n];
+		int[] next = Arrays.copyOf(first, numComponents);
+		for (int v = 0; v < n; v++)
+			byComponent[next[component[v]]++] = v;
+		int[] minReach = new int[numComponents];
+		for (int c = 0; c < numComponents; c++)
+		{
+			minReach[c] = c;
+			for (int i = first[c]; i < first[c + 1]; i++)
+			{
+				for (int e : net.out[byComponent[i]])
+					minReach[c] = Math.min(minReach[c], minReach[component[net.edgeTo[e]]]);
+			}
+		}
+		return new Components(component, sizes, minReach);
+	}
+}
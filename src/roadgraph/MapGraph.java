@@ -11,15 +11,18 @@ package roadgraph;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
 import java.util.Map;	
 import java.util.HashMap;	
+import java.util.LinkedHashMap;
+import java.util.HashSet;
 import java.util.ArrayList;		
-import java.util.Queue;		
-import java.util.LinkedList;	
-import java.util.HashSet;		
 import java.util.Collections;	
-import java.util.PriorityQueue;
+import java.util.Iterator;
+import java.util.Arrays;
 import geography.GeographicPoint;
+import geography.RoadSegment;
 import util.GraphLoader;
 
 /**
@@ -32,27 +35,50 @@ import util.GraphLoader;
 public class MapGraph {
 	// Member variable constructs Adjacency List. Each start GeographicPoint maps 
 	// to a list (HashMap) of end GeographicPoints, each of which maps to road object including
-	// road information
+	// road information. This is where vertices and edges are collected while the graph is loaded.
 	private Map<GeographicPoint, Map<GeographicPoint, Road>> map;
-	// For Dijkstra method
-	//private Map<GeographicPoint, Distance> mapDistance;
-	// For shortest time version of Dijkstra method
-	private Map<GeographicPoint, Duration> mapDuration;
-	// For AStarSearch method
-	//private Map<GeographicPoint, AStarDistance> mapAStarDistance;
-	// For shortest time version of AStarSearch method
-	private Map<GeographicPoint, AStarDuration> mapAStarDuration;
+	// Immutable snapshot the search algorithms run on. It is built from map on first use
+	// and replaced as a whole by applyDelta, so a search that started on the old snapshot
+	// finishes on it while new searches see the update.
+	private volatile RoadNetwork network;
+	// The last snapshot before map changed, whose travel times the rebuilt one keeps.
+	private RoadNetwork previous;
+	// Daily speed profiles used by timeDependentSearch.
+	private volatile SpeedProfiles speedProfiles;
+	// slot of the resolved speed profiles in each snapshot; only the current profiles are kept
+	private static final Object SPEED_PROFILES = new Object();
+	// Turn costs and restrictions used by edgeBasedSearch.
+	private volatile TurnCosts turnCosts;
+	// slot of the resolved turn costs in each snapshot; only the current costs are kept
+	private static final Object TURN_COSTS = new Object();
+	// slot of the weight arrays of weightings other than DISTANCE and TIME in each snapshot
+	private static final Object WEIGHTINGS = new Object();
+	// how many of those arrays each snapshot keeps, least recently used dropped first
+	private static final int CACHED_WEIGHTINGS = 4;
+	// Whether searches print how many vertices they visited.
+	private volatile boolean verbose;
+	// Speed of each road type, used to time roads as they are added.
+	private final SpeedTable speeds;
 	
 	/** 
 	 * Create a new empty MapGraph 
 	 */
 	public MapGraph()
 	{
+		this(SpeedTable.getDefault());
+	}
+	
+	/** 
+	 * Create a new empty MapGraph whose roads are timed with the given speeds,
+	 * e.g. SpeedTable.forRegion("uk").
+	 */
+	public MapGraph(SpeedTable speeds)
+	{
+		this.speeds = speeds;
 		map = new HashMap<GeographicPoint, Map<GeographicPoint, Road>>();
-		//mapDistance = new HashMap<GeographicPoint, Distance>();
-		mapDuration = new HashMap<GeographicPoint, Duration>();
-		//mapAStarDistance = new HashMap<GeographicPoint, AStarDistance>();
-		mapAStarDuration = new HashMap<GeographicPoint, AStarDuration>();
+		speedProfiles = new SpeedProfiles();
+		turnCosts = new TurnCosts();
+		verbose = true;
 	}
 	
 	/**
@@ -61,7 +87,7 @@ public class MapGraph {
 	 */
 	public int getNumVertices()
 	{
-		return map.size();
+		return network().getNumVertices();
 	}
 	
 	/**
@@ -70,7 +96,7 @@ public class MapGraph {
 	 */
 	public Set<GeographicPoint> getVertices()
 	{
-		return map.keySet();
+		return Collections.unmodifiableSet(network().getVertices());
 	}
 	
 	/**
@@ -80,8 +106,8 @@ public class MapGraph {
 	public int getNumEdges()
 	{
 		int size = 0;
-		for (Map.Entry<GeographicPoint, Map<GeographicPoint, Road>> entry : map.entrySet())
-			size += entry.getValue().size();
+		for (int[] edges : network().out)
+			size += edges.length;
 		return size;
 	}
 
@@ -94,20 +120,12 @@ public class MapGraph {
 	 * @return true if a node was added, false if it was not (the node
 	 * was already in the graph, or the parameter is null).
 	 */
-	public boolean addVertex(GeographicPoint location)
+	public synchronized boolean addVertex(GeographicPoint location)
 	{
-		if (location == null)
+		if (location == null || map.containsKey(location))
 			return false;
-		for (GeographicPoint v : map.keySet())
-		{
-			if (v.distance(location) == 0)
-				return false;
-		}
 		map.put(location, new HashMap<GeographicPoint, Road>());
-		//mapDistance.put(location, new Distance(location));
-		mapDuration.put(location, new Duration(location));
-		//mapAStarDistance.put(location, new AStarDistance(location));
-		mapAStarDuration.put(location, new AStarDuration(location));
+		invalidate();
 		return true;
 	}
 	
@@ -125,13 +143,330 @@ public class MapGraph {
 	 */
 	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
 			String roadType, double length) throws IllegalArgumentException {
+		addEdge(from, to, roadName, roadType, length, null);
+	}
+	
+	/**
+	 * Adds a directed edge to the graph from pt1 to pt2, with the shape of
+	 * the road, which is used to measure the angle of turns onto and off it.
+	 * Precondition: Both GeographicPoints have already been added to the graph
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 * @param roadName The name of the road
+	 * @param roadType The type of the road
+	 * @param length The length of the road, in km
+	 * @param geometry The points between from and to, in order; null or
+	 *   empty for a straight road.
+	 * @throws IllegalArgumentException If the points have not already been
+	 *   added as nodes to the graph, if any of the arguments is null,
+	 *   or if the length is less than 0.
+	 */
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry) throws IllegalArgumentException {
+		addEdge(from, to, roadName, roadType, speeds.typeId(roadType), length, geometry);
+	}
+	
+	/**
+	 * Adds a directed edge to the graph from pt1 to pt2, as above, with the
+	 * id of its road type already looked up, so a loader can look up each
+	 * road type once rather than once per road.
+	 * @param typeId The id of roadType in getSpeedTable()
+	 * @throws IllegalArgumentException If the points have not already been
+	 *   added as nodes to the graph, if any of the arguments is null,
+	 *   if the length is less than 0, or if typeId is not in the table.
+	 */
+	public synchronized void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, int typeId, double length, List<GeographicPoint> geometry) throws IllegalArgumentException {
 		if (from == null || to == null)
 			throw new IllegalArgumentException("GeographicPoints cannot be null.");
 		if (length == 0)
 			throw new IllegalArgumentException("length cannot be zero.");
 		if (!map.containsKey(from) || !map.containsKey(to))
 			throw new IllegalArgumentException("points have not already been addes as nodes to the graph.");
-		map.get(from).put(to, new Road(from, to, roadName, roadType, length));
+		if (typeId < 0 || typeId >= speeds.getNumTypes())
+			throw new IllegalArgumentException("No road type with id " + typeId);
+		map.get(from).put(to, new Road(from, to, roadName, roadType, typeId, length, geometry, speeds));
+		invalidate();
+	}
+	
+	/**
+	 * Get the road from one intersection to another.
+	 * @param from The starting point of the road
+	 * @param to The ending point of the road
+	 * @return The road, or null if there is no road from -> to.
+	 */
+	public Road getRoad(GeographicPoint from, GeographicPoint to)
+	{
+		RoadNetwork net = network();
+		int v = net.indexOf(from);
+		int w = net.indexOf(to);
+		if (v < 0 || w < 0)
+			return null;
+		int e = net.findEdge(v, w);
+		return e < 0 ? null : net.roads[e];
+	}
+	
+	/**
+	 * Get the number of strongly connected components: groups of
+	 * intersections that can all be reached from each other. They are
+	 * computed once per version of the graph, and used by every search to
+	 * reject a goal that cannot be reached from start without searching.
+	 * @return The number of strongly connected components.
+	 */
+	public int getNumComponents()
+	{
+		return network().components().sizes.length;
+	}
+	
+	/**
+	 * Remove every intersection whose strongly connected component has
+	 * fewer than minSize intersections, with the roads to and from it.
+	 * This drops small islands that are cut off from the rest of the map,
+	 * but also one-way spurs that cannot be both entered and left, so
+	 * routes can no longer start or end on them.
+	 * @param minSize The smallest component to keep
+	 * @return The intersections that were removed.
+	 */
+	public synchronized Set<GeographicPoint> removeSmallComponents(int minSize)
+	{
+		RoadNetwork net = network();
+		Components components = net.components();
+		Set<GeographicPoint> removed = new HashSet<GeographicPoint>();
+		for (int v = 0; v < net.getNumVertices(); v++)
+		{
+			if (components.sizes[components.component[v]] < minSize)
+				removed.add(net.points[v]);
+		}
+		if (removed.isEmpty())
+			return removed;
+		map.keySet().removeAll(removed);
+		for (Map<GeographicPoint, Road> edges : map.values())
+			edges.keySet().removeAll(removed);
+		invalidate();
+		return removed;
+	}
+	
+	/**
+	 * Simplify the graph by contracting chains of intersections that only
+	 * continue a road: an intersection with a single road in and a single
+	 * road out, or a two-way road in both directions, is removed and its
+	 * roads are joined into one. Lengths and travel times add up, so routes
+	 * between the remaining intersections keep their cost, and searches
+	 * have fewer vertices to visit. Road names may differ along a chain,
+	 * but road types must match so every weighting still applies. Turn
+	 * costs at the removed intersections are dropped, and speed profiles
+	 * or turn restrictions set on their roads no longer apply.
+	 * @param segments The road geometry used for display, or null. A
+	 *   segment with the merged geometry is added for every joined road,
+	 *   so routes are still drawn along the original shape, and the
+	 *   segments of the removed intersections are dropped.
+	 * @return The intersections that were removed.
+	 */
+	public synchronized Set<GeographicPoint> contractChains(HashMap<GeographicPoint, HashSet<RoadSegment>> segments)
+	{
+		Map<GeographicPoint, Set<GeographicPoint>> in = new HashMap<GeographicPoint, Set<GeographicPoint>>();
+		for (Map.Entry<GeographicPoint, Map<GeographicPoint, Road>> entry : map.entrySet())
+		{
+			for (GeographicPoint to : entry.getValue().keySet())
+				in.computeIfAbsent(to, k -> new HashSet<GeographicPoint>()).add(entry.getKey());
+		}
+		Set<GeographicPoint> removed = new HashSet<GeographicPoint>();
+		for (GeographicPoint v : new ArrayList<GeographicPoint>(map.keySet()))
+		{
+			Map<GeographicPoint, Road> out = map.get(v);
+			Set<GeographicPoint> into = in.getOrDefault(v, Collections.<GeographicPoint>emptySet());
+			if (out.size() == 1 && into.size() == 1)
+			{
+				// one-way: u -> v -> w
+				GeographicPoint u = into.iterator().next();
+				GeographicPoint w = out.keySet().iterator().next();
+				if (!canJoin(u, v, w))
+					continue;
+				join(u, v, w, in, segments);
+			}
+			else if (out.size() == 2 && into.equals(out.keySet()))
+			{
+				// two-way: a <-> v <-> b
+				Iterator<GeographicPoint> ends = into.iterator();
+				GeographicPoint a = ends.next();
+				GeographicPoint b = ends.next();
+				if (!canJoin(a, v, b) || !canJoin(b, v, a))
+					continue;
+				join(a, v, b, in, segments);
+				join(b, v, a, in, segments);
+			}
+			else
+				continue;
+			map.remove(v);
+			in.remove(v);
+			removed.add(v);
+			if (segments != null)
+				removeSegments(segments, v);
+		}
+		if (!removed.isEmpty())
+			invalidate();
+		return removed;
+	}
+	
+	// Whether u -> v -> w can become a single road u -> w.
+	private boolean canJoin(GeographicPoint u, GeographicPoint v, GeographicPoint w)
+	{
+		// u == w would make a loop, and an existing road u -> w cannot be replaced
+		return !u.equals(w) && !u.equals(v) && !w.equals(v) && !map.get(u).containsKey(w)
+				&& map.get(u).get(v).getRoadType().equals(map.get(v).get(w).getRoadType());
+	}
+	
+	// Replace u -> v -> w with a single road u -> w.
+	private void join(GeographicPoint u, GeographicPoint v, GeographicPoint w,
+			Map<GeographicPoint, Set<GeographicPoint>> in, HashMap<GeographicPoint, HashSet<RoadSegment>> segments)
+	{
+		Road first = map.get(u).remove(v);
+		Road second = map.get(v).get(w);
+		Road road = first.join(second, speeds);
+		map.get(u).put(w, road);
+		in.get(w).remove(v);
+		in.get(w).add(u);
+		if (segments == null)
+			return;
+		// all points from u to w, without the two ends
+		List<GeographicPoint> firstPoints = segmentPoints(segments, u, v);
+		List<GeographicPoint> secondPoints = segmentPoints(segments, v, w);
+		List<GeographicPoint> geometry = new ArrayList<GeographicPoint>(firstPoints.subList(1, firstPoints.size()));
+		geometry.addAll(secondPoints.subList(1, secondPoints.size() - 1));
+		RoadSegment joined = new RoadSegment(u, w, geometry, road.getRoadName(), road.getRoadType(), road.getLength());
+		segments.computeIfAbsent(u, k -> new HashSet<RoadSegment>()).add(joined);
+		segments.computeIfAbsent(w, k -> new HashSet<RoadSegment>()).add(joined);
+	}
+	
+	// Drop the segments at v, which no longer is an intersection, from both their ends.
+	private static void removeSegments(HashMap<GeographicPoint, HashSet<RoadSegment>> segments, GeographicPoint v)
+	{
+		HashSet<RoadSegment> atV = segments.remove(v);
+		if (atV == null)
+			return;
+		for (RoadSegment seg : atV)
+		{
+			HashSet<RoadSegment> atOther = segments.get(seg.getOtherPoint(v));
+			if (atOther != null)
+				atOther.remove(seg);
+		}
+	}
+	
+	// The points of the displayed road from -> to, or just the two ends if there is no segment for it.
+	private static List<GeographicPoint> segmentPoints(HashMap<GeographicPoint, HashSet<RoadSegment>> segments,
+			GeographicPoint from, GeographicPoint to)
+	{
+		for (RoadSegment seg : segments.getOrDefault(from, new HashSet<RoadSegment>()))
+		{
+			if (to.equals(seg.getOtherPoint(from)))
+				return seg.getPoints(from, to);
+		}
+		return Arrays.asList(from, to);
+	}
+	
+	/**
+	 * Apply a batch of road changes without reloading the graph.
+	 * The new graph is built next to the current one, sharing everything the
+	 * delta does not touch, and published in a single step: searches already
+	 * running finish on the old graph, and searches started afterwards see
+	 * all of the changes.
+	 * @param delta The roads to add, remove or retype.
+	 * @throws IllegalArgumentException If the delta refers to a road that does
+	 *   not exist or adds a road of length zero. The graph is left unchanged.
+	 */
+	public synchronized void applyDelta(RoadDelta delta)
+	{
+		RoadNetwork next = network().withDelta(delta, speeds);
+		// keep the load-time adjacency in step so later addVertex/addEdge calls build
+		// on it, copying the final state of each road the delta touched
+		for (RoadDelta.Change change : delta.getChanges())
+		{
+			int from = next.indexOf(change.from);
+			int to = next.indexOf(change.to);
+			int e = from < 0 || to < 0 ? -1 : next.findEdge(from, to);
+			if (e < 0)
+			{
+				Map<GeographicPoint, Road> edges = map.get(change.from);
+				if (edges != null)
+					edges.remove(change.to);
+				continue;
+			}
+			map.putIfAbsent(change.from, new HashMap<GeographicPoint, Road>());
+			map.putIfAbsent(change.to, new HashMap<GeographicPoint, Road>());
+			map.get(change.from).put(change.to, next.roads[e]);
+		}
+		network = next;
+	}
+	
+	/**
+	 * @return The speed table roads in this graph are timed with.
+	 */
+	public SpeedTable getSpeedTable()
+	{
+		return speeds;
+	}
+	
+	/**
+	 * Recompute the travel time of every road from live traffic data.
+	 * Each road's time becomes its free-flow time (Road.getTime) times the
+	 * multiplier returned for it. The new times are written to a fresh array
+	 * and published in one step, so searches never block and a search that
+	 * is already running keeps using the times it started with.
+	 * Multipliers should be at least 1; smaller ones can make aStarSearch's
+	 * estimate too optimistic and its routes no longer the fastest. Roads
+	 * keep their times when other roads are added or removed; new or
+	 * replaced roads start at their free-flow time until the next call.
+	 * @param multiplier The traffic multiplier for each road.
+	 * @return The version number of the published times.
+	 */
+	public synchronized long updateTravelTimes(ToDoubleFunction<Road> multiplier)
+	{
+		RoadNetwork net = network();
+		double[] times = new double[net.times.length];
+		for (int e = 0; e < net.numEdges; e++)
+		{
+			if (net.roads[e] != null)
+				times[e] = net.roads[e].getTime() * multiplier.applyAsDouble(net.roads[e]);
+		}
+		network = net.withTimes(times);
+		return network.weightVersion;
+	}
+	
+	/**
+	 * @return The version of the travel times searches currently use. It
+	 *   increases by one with each call to updateTravelTimes.
+	 */
+	public long getTravelTimeVersion()
+	{
+		return network().weightVersion;
+	}
+	
+	// Drop the snapshot after map changed; the next search builds a new one
+	// from map. Called with the lock held.
+	private void invalidate()
+	{
+		if (network != null)
+			previous = network;
+		network = null;
+	}
+	
+	// Return the current snapshot, building it first if the graph changed since the last search.
+	RoadNetwork network()
+	{
+		RoadNetwork net = network;
+		if (net == null)
+		{
+			synchronized (this)
+			{
+				if (network == null)
+				{
+					network = RoadNetwork.build(map, previous);
+					previous = null;
+				}
+				net = network;
+			}
+		}
+		return net;
 	}
 	
 
@@ -159,46 +494,55 @@ public class MapGraph {
 	public List<GeographicPoint> bfs(GeographicPoint start, 
 			 					     GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
 	{
-		List<GeographicPoint> list = new ArrayList<GeographicPoint>();
+		RoadNetwork net = network();
+		int s = net.indexOf(start);
+		int g = net.indexOf(goal);
 		// If start or goal is not in graph, return null.
-		if (!map.containsKey(start) || !map.containsKey(goal))	
+		if (s < 0 || g < 0)	
+			return null;
+		// no path can lead from start's component to goal's
+		if (!net.components().mayReach(s, g))
 			return null;
-		Queue<GeographicPoint> queue = new LinkedList<GeographicPoint>();
-		Set<GeographicPoint> visited = new HashSet<GeographicPoint>();
-		Map<GeographicPoint, GeographicPoint> parent = new HashMap<GeographicPoint, GeographicPoint>();
-		queue.add(start);
-		visited.add(start);
-		while (queue.size() != 0)
+		SearchState state = SearchState.forCurrentThread();
+		state.reset(net.getNumVertices());
+		int[] queue = new int[net.getNumVertices()];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = s;
+		state.reach(s, 0, -1);
+		while (head < tail)
 		{
-			GeographicPoint curr = queue.remove();
+			int curr = queue[head++];
 			// Hook for visualization.
-			nodeSearched.accept(curr);
-			//if goal is found, add goal as the first GeographicPoint in the result list and break loop.
-			if (curr.distance(goal) == 0)
+			nodeSearched.accept(net.points[curr]);
+			//if goal is found, stop and rebuild the path from the parent edges.
+			if (curr == g)
+				return buildPath(net, state, g);
+			for (int e : net.out[curr])
 			{
-				list.add(curr);		
-				break;
-			}
-			for (GeographicPoint point : map.get(curr).keySet())
-			{
-				if (!visited.contains(point))
+				int next = net.edgeTo[e];
+				if (state.cost(next) == Double.POSITIVE_INFINITY)
 				{
-					visited.add(point);
-					parent.put(point, curr);
-					queue.add(point);
+					state.reach(next, state.cost(curr) + 1, e);
+					queue[tail++] = next;
 				}
 			}
 		}
 		//If there is no path from start to goal, return null.
-		if (list.size() == 0)	
-			return null;
-		GeographicPoint point = list.get(0);
-		//Add GeographicPoints in the result path in reversal order.
-		while (parent.containsKey(point))	
+		return null;
+	}
+	
+	// Follow the parent edges back from goal to the start of the search and
+	// return the intersections along the way, in order from start to goal.
+	static List<GeographicPoint> buildPath(RoadNetwork net, SearchState state, int goal)
+	{
+		List<GeographicPoint> list = new ArrayList<GeographicPoint>();
+		int v = goal;
+		list.add(net.points[v]);
+		for (int e = state.parentEdge(v); e >= 0; e = state.parentEdge(v))
 		{
-			GeographicPoint curr = parent.get(point);
-			list.add(curr);
-			point = curr;
+			v = net.edgeFrom[e];
+			list.add(net.points[v]);
 		}
 		// reverse GeographicPoints in the result path to get correct order.
 		Collections.reverse(list);
@@ -219,7 +563,7 @@ public class MapGraph {
         return dijkstra(start, goal, temp);
 	}
 	
-	/** Find the path from start to goal using Dijkstra's algorithm
+	/** Find the path with shortest trip duration from start to goal using Dijkstra's algorithm
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
@@ -227,253 +571,553 @@ public class MapGraph {
 	 * @return The list of intersections that form the shortest path from 
 	 *   start to goal (including both start and goal).
 	 */
-	/*public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
 	{
-		List<GeographicPoint> list = new ArrayList<GeographicPoint>();
-		if (!map.containsKey(start) || !map.containsKey(goal))	
+		return dijkstra(start, goal, Weighting.TIME, nodeSearched);
+	}
+	
+	/** Find the cheapest path from start to goal under a cost model using Dijkstra's algorithm
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param weighting The cost model, e.g. Weighting.DISTANCE or Weighting.TIME
+	 * @param nodeSearched A hook for visualization.
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, Weighting weighting,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		return search(start, goal, weighting, false, nodeSearched, "Dijkstra: ");
+	}
+	
+
+	/** Find the path from start to goal using A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
+		// Dummy variable for calling the search algorithms
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return aStarSearch(start, goal, temp);
+	}
+	
+	/** Find the path with shortest trip duration from start to goal using A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	{
+		return aStarSearch(start, goal, Weighting.TIME, nodeSearched);
+	}
+	
+	/** Find the cheapest path from start to goal under a cost model using A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param weighting The cost model, e.g. Weighting.DISTANCE or Weighting.TIME
+	 * @param nodeSearched A hook for visualization.
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, Weighting weighting,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		return search(start, goal, weighting, true, nodeSearched, "AStarSearch: ");
+	}
+	
+	// Return the cost of every edge of the snapshot under a weighting, computing
+	// the array the first time the weighting is used on this snapshot. DISTANCE
+	// and TIME keep their arrays; other weightings share a small cache keyed on
+	// equals, so a caller creating a new weighting for every query does not pile
+	// arrays up, and a few weightings used in turn do not evict each other.
+	static double[] edgeWeights(RoadNetwork net, Weighting weighting)
+	{
+		// distances do not change with traffic
+		if (weighting == Weighting.DISTANCE)
+			return net.fromTopology(weighting, n -> computeWeights(n, weighting));
+		if (weighting == Weighting.TIME)
+			return net.derived(weighting, n -> computeWeights(n, weighting));
+		WeightCache cache = net.derived(WEIGHTINGS, n -> new WeightCache());
+		double[] weights;
+		synchronized (cache)
+		{
+			weights = cache.get(weighting);
+		}
+		if (weights == null)
+		{
+			// computed outside the lock, so searches with other weightings are not held up
+			weights = computeWeights(net, weighting);
+			synchronized (cache)
+			{
+				cache.put(weighting, weights);
+			}
+		}
+		return weights;
+	}
+	
+	private static double[] computeWeights(RoadNetwork net, Weighting weighting)
+	{
+		double[] weights = new double[net.numEdges];
+		for (int e = 0; e < net.numEdges; e++)
+		{
+			if (net.roads[e] != null)
+				weights[e] = weighting.weight(net.roads[e], net.times[e]);
+		}
+		return weights;
+	}
+	
+	// Weight arrays by weighting, in order of last use, holding at most CACHED_WEIGHTINGS.
+	private static final class WeightCache extends LinkedHashMap<Weighting, double[]> {
+		private static final long serialVersionUID = 1L;
+		
+		WeightCache()
+		{
+			super(CACHED_WEIGHTINGS * 2, 0.75f, true);
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Weighting, double[]> eldest)
+		{
+			return size() > CACHED_WEIGHTINGS;
+		}
+	}
+	
+	// Dijkstra's algorithm, or A* when useEstimate is set. The inner loop only reads
+	// the precomputed weight array, so it is the same code for every cost model.
+	private List<GeographicPoint> search(GeographicPoint start, GeographicPoint goal, Weighting weighting,
+			boolean useEstimate, Consumer<GeographicPoint> nodeSearched, String label)
+	{
+		RoadNetwork net = network();
+		int s = net.indexOf(start);
+		int g = net.indexOf(goal);
+		if (s < 0 || g < 0)	
+			return null;
+		double[] weights = edgeWeights(net, weighting);
+		double estimatePerKm = useEstimate ? weighting.minCostPerKm(speeds.getMaxSpeed()) : 0;
+		SearchState state = SearchState.forCurrentThread();
+		int count = search(net, s, g, weights, estimatePerKm, state, nodeSearched);
+		if (count < 0)
 			return null;
-		PriorityQueue<Distance> pq = new PriorityQueue<Distance>();
-		Set<GeographicPoint> visited = new HashSet<GeographicPoint>();
-		Map<GeographicPoint, GeographicPoint> parent = new HashMap<GeographicPoint, GeographicPoint>();
-		mapDistance.get(start).setDistance(0);
-		pq.add(mapDistance.get(start));
+		if (verbose)
+			System.out.println(label + count);
+		return buildPath(net, state, g);
+	}
+	
+	/**
+	 * Run Dijkstra's algorithm, or A* when estimatePerKm is positive, from s
+	 * to g on a snapshot. The path can be read back from state afterwards.
+	 * @return The number of vertices polled from the queue, or -1 if g
+	 *   cannot be reached.
+	 */
+	static int search(RoadNetwork net, int s, int g, double[] weights, double estimatePerKm,
+			SearchState state, Consumer<GeographicPoint> nodeSearched)
+	{
+		if (!net.components().mayReach(s, g))
+			return -1;
+		GeographicPoint goal = net.points[g];
+		state.reset(net.getNumVertices());
+		state.reach(s, 0, -1);
+		state.push(s, 0);
 		int count = 0;
-		while (pq.size() != 0)
+		while (!state.isHeapEmpty())
 		{
-			GeographicPoint curr = pq.poll().getPoint();
+			int curr = state.poll();
 			count++;
 			// Hook for visualization.
-			nodeSearched.accept(curr);
-			if (!visited.contains(curr))
+			nodeSearched.accept(net.points[curr]);
+			if (!state.isSettled(curr))
 			{
-				visited.add(curr);
-				if (curr.distance(goal) == 0)
+				state.settle(curr);
+				if (curr == g)
+					return count;
+				double currCost = state.cost(curr);
+				for (int e : net.out[curr])
 				{
-					list.add(curr);		
-					break;
-				}
-				for (GeographicPoint point : map.get(curr).keySet())
-				{
-					if (!visited.contains(point))
+					int next = net.edgeTo[e];
+					if (!state.isSettled(next))
 					{
-						double currDistance = mapDistance.get(curr).getDistance() + map.get(curr).get(point).getLength();
-						if (currDistance < mapDistance.get(point).getDistance())
+						double cost = currCost + weights[e];
+						if (cost < state.cost(next))
 						{
-							mapDistance.get(point).setDistance(currDistance);
-							parent.put(point, curr);
-							pq.add(new Distance(point, currDistance));
+							state.reach(next, cost, e);
+							double goalCost = estimatePerKm > 0 ? net.points[next].distance(goal) * estimatePerKm : 0;
+							state.push(next, cost + goalCost);
 						}
 					}
 				}
 			}
 		}
-		if (list.size() == 0)	
-			return null;
-		GeographicPoint point = list.get(0);
-		while (parent.containsKey(point))	
+		return -1;
+	}
+	
+	/** Find the fastest route from start to goal and up to maxRoutes - 1
+	 * reasonable alternatives, using the default limits of AlternativeRoutes.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param maxRoutes The most routes to return, including the fastest one
+	 * @return The routes, fastest first, each as the list of intersections
+	 *   from start to goal; empty if goal cannot be reached.
+	 */
+	public List<List<GeographicPoint>> alternativeRoutes(GeographicPoint start, GeographicPoint goal, int maxRoutes)
+	{
+		return new AlternativeRoutes(this).find(start, goal, maxRoutes);
+	}
+	
+	/**
+	 * Find the fastest travel time between every pair of points, with one
+	 * Dijkstra search per point that ends as soon as all the other points
+	 * are settled. Rows are computed in parallel.
+	 * @param stops The intersections to connect
+	 * @return matrix[i][j] is the travel time from stop i to stop j, or
+	 *   infinity where there is no path.
+	 * @throws IllegalArgumentException If a point is not in the graph.
+	 */
+	public double[][] durationMatrix(List<GeographicPoint> stops)
+	{
+		return durationMatrix(network(), stops);
+	}
+
+	// durationMatrix on a given snapshot, so a caller can route its legs on the same one.
+	static double[][] durationMatrix(RoadNetwork net, List<GeographicPoint> stops)
+	{
+		double[] weights = edgeWeights(net, Weighting.TIME);
+		int[] ids = new int[stops.size()];
+		for (int i = 0; i < ids.length; i++)
 		{
-			GeographicPoint curr = parent.get(point);
-			list.add(curr);
-			point = curr;
+			ids[i] = net.indexOf(stops.get(i));
+			if (ids[i] < 0)
+				throw new IllegalArgumentException(stops.get(i) + " is not in the graph.");
 		}
-		Collections.reverse(list);
-		System.out.println("Dijkstra: " + count);
-		return list;
-	}*/
-	
-	// Find the path with shortest trip duration from start to goal using Dijkstra's algorithm
-	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+		double[][] matrix = new double[ids.length][];
+		IntStream.range(0, ids.length).parallel().forEach(i -> matrix[i] = oneToMany(net, weights, ids[i], ids));
+		return matrix;
+	}
+
+	// Dijkstra search from source that stops once every target is settled.
+	private static double[] oneToMany(RoadNetwork net, double[] weights, int source, int[] targets)
 	{
-		List<GeographicPoint> list = new ArrayList<GeographicPoint>();
-		if (!map.containsKey(start) || !map.containsKey(goal))	
-			return null;
-		PriorityQueue<Duration> pq = new PriorityQueue<Duration>();
-		Set<GeographicPoint> visited = new HashSet<GeographicPoint>();
-		Map<GeographicPoint, GeographicPoint> parent = new HashMap<GeographicPoint, GeographicPoint>();
-		mapDuration.get(start).setTime(0);
-		pq.add(mapDuration.get(start));
-		int count = 0;
-		while (pq.size() != 0)
+		SearchState state = SearchState.forCurrentThread();
+		state.reset(net.getNumVertices());
+		state.reach(source, 0, -1);
+		state.push(source, 0);
+		// targets can repeat, so count settled target entries rather than vertices
+		int[] targetCount = new int[net.getNumVertices()];
+		for (int t : targets)
+			targetCount[t]++;
+		int remaining = targets.length;
+		while (remaining > 0 && !state.isHeapEmpty())
 		{
-			GeographicPoint curr = pq.poll().getPoint();
-			count++;
-			// Hook for visualization.
-			nodeSearched.accept(curr);
-			if (!visited.contains(curr))
+			int curr = state.poll();
+			if (state.isSettled(curr))
+				continue;
+			state.settle(curr);
+			remaining -= targetCount[curr];
+			double currCost = state.cost(curr);
+			for (int e : net.out[curr])
 			{
-				visited.add(curr);
-				if (curr.distance(goal) == 0)
+				int next = net.edgeTo[e];
+				double cost = currCost + weights[e];
+				if (!state.isSettled(next) && cost < state.cost(next))
 				{
-					list.add(curr);		
-					break;
+					state.reach(next, cost, e);
+					state.push(next, cost);
 				}
-				for (GeographicPoint point : map.get(curr).keySet())
+			}
+		}
+		double[] row = new double[targets.length];
+		for (int j = 0; j < targets.length; j++)
+			row[j] = state.isSettled(targets[j]) ? state.cost(targets[j]) : Double.POSITIVE_INFINITY;
+		return row;
+	}
+
+	/**
+	 * Find every intersection that can be reached from start within a
+	 * travel time, e.g. to draw an isochrone.
+	 * @param start The starting location
+	 * @param maxTime The travel time budget, in hours
+	 * @return The travel time to each reachable intersection, including
+	 *   start itself; empty if start is not in the graph.
+	 */
+	public Map<GeographicPoint, Double> reachableWithin(GeographicPoint start, double maxTime)
+	{
+		Map<GeographicPoint, Double> reached = new HashMap<GeographicPoint, Double>();
+		RoadNetwork net = network();
+		int s = net.indexOf(start);
+		if (s < 0)
+			return reached;
+		double[] times = net.times;
+		SearchState state = SearchState.forCurrentThread();
+		state.reset(net.getNumVertices());
+		state.reach(s, 0, -1);
+		state.push(s, 0);
+		while (!state.isHeapEmpty())
+		{
+			int curr = state.poll();
+			if (state.isSettled(curr))
+				continue;
+			state.settle(curr);
+			double currCost = state.cost(curr);
+			reached.put(net.points[curr], currCost);
+			for (int e : net.out[curr])
+			{
+				int next = net.edgeTo[e];
+				double cost = currCost + times[e];
+				if (cost <= maxTime && !state.isSettled(next) && cost < state.cost(next))
 				{
-					if (!visited.contains(point))
-					{
-						double currTime = mapDuration.get(curr).getTime() + map.get(curr).get(point).getTime();
-						if (currTime < mapDuration.get(point).getTime())
-						{
-							mapDuration.get(point).setTime(currTime);
-							parent.put(point, curr);
-							pq.add(new Duration(point, currTime));
-						}
-					}
+					state.reach(next, cost, e);
+					state.push(next, cost);
 				}
 			}
 		}
-		if (list.size() == 0)	
-			return null;
-		GeographicPoint point = list.get(0);
-		while (parent.containsKey(point))	
+		return reached;
+	}
+	
+	/**
+	 * Find the intersection closest to a location, e.g. to start a route
+	 * from a point the user clicked or a GPS position.
+	 * @param location Any location
+	 * @return The nearest intersection, or null if the graph is empty.
+	 */
+	public GeographicPoint nearestVertex(GeographicPoint location)
+	{
+		RoadNetwork net = network();
+		int v = net.fromTopology(SnapIndex.class, SnapIndex::new).nearest(location);
+		return v < 0 ? null : net.points[v];
+	}
+	
+	/**
+	 * @return The current travel time of a path, including traffic, or
+	 *   infinity if two consecutive points are not joined by a road.
+	 */
+	public double getTravelTime(List<GeographicPoint> path)
+	{
+		RoadNetwork net = network();
+		double time = 0;
+		for (int i = 1; i < path.size(); i++)
 		{
-			GeographicPoint curr = parent.get(point);
-			list.add(curr);
-			point = curr;
+			int from = net.indexOf(path.get(i - 1));
+			int e = from < 0 ? -1 : net.findEdge(from, net.indexOf(path.get(i)));
+			if (e < 0)
+				return Double.POSITIVE_INFINITY;
+			time += net.times[e];
 		}
-		Collections.reverse(list);
-		System.out.println("Dijkstra: " + count);
-		return list;
+		return time;
 	}
 	
-
-	/** Find the path from start to goal using A-Star search
+	/**
+	 * Turn the line printed by every dijkstra and aStarSearch call on or
+	 * off; servers and batch jobs turn it off.
+	 */
+	public void setVerbose(boolean verbose)
+	{
+		this.verbose = verbose;
+	}
+	
+	/**
+	 * Set the turn costs and restrictions used by edgeBasedSearch. The table
+	 * is copied, so changing it afterwards has no effect until it is set again.
+	 * @param costs The cost of each kind of turn, and of single turns.
+	 */
+	public void setTurnCosts(TurnCosts costs)
+	{
+		turnCosts = costs.copy();
+	}
+	
+	/** Find the fastest path from start to goal, including the time lost
+	 * turning at intersections and obeying turn restrictions.
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
-	 * @return The list of intersections that form the shortest path from 
+	 * @return The list of intersections that form the fastest path from 
 	 *   start to goal (including both start and goal).
 	 */
-	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
+	public List<GeographicPoint> edgeBasedSearch(GeographicPoint start, GeographicPoint goal)
+	{
 		// Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {};
-        return aStarSearch(start, goal, temp);
+		Consumer<GeographicPoint> temp = (x) -> {};
+		return edgeBasedSearch(start, goal, Weighting.TIME, temp);
 	}
 	
-	/** Find the path from start to goal using A-Star search
+	/** Find the cheapest path from start to goal, including the cost of
+	 * turning at intersections and obeying turn restrictions.
+	 * The search runs on roads rather than intersections: the state is the
+	 * road used to arrive at an intersection, which is what decides the
+	 * cost of the next turn. Search state is kept per edge id in the same
+	 * reusable arrays as the other searches, so the expanded graph is never
+	 * built. This is an A* search; turn costs are never negative, so the
+	 * weighting's estimate stays optimistic.
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
+	 * @param weighting The cost model for the roads; turn costs are added to it.
 	 * @param nodeSearched A hook for visualization.
-	 * @return The list of intersections that form the shortest path from 
+	 * @return The list of intersections that form the cheapest path from 
 	 *   start to goal (including both start and goal).
 	 */
-	/*public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	public List<GeographicPoint> edgeBasedSearch(GeographicPoint start, GeographicPoint goal,
+			Weighting weighting, Consumer<GeographicPoint> nodeSearched)
 	{
-		List<GeographicPoint> list = new ArrayList<GeographicPoint>();
-		if (!map.containsKey(start) || !map.containsKey(goal))	
+		RoadNetwork net = network();
+		int s = net.indexOf(start);
+		int g = net.indexOf(goal);
+		if (s < 0 || g < 0)
 			return null;
-		PriorityQueue<AStarDistance> pq = new PriorityQueue<AStarDistance>();
-		Set<GeographicPoint> visited = new HashSet<GeographicPoint>();
-		Map<GeographicPoint, GeographicPoint> parent = new HashMap<GeographicPoint, GeographicPoint>();
-		mapAStarDistance.get(start).setSourceDistance(0);
-		mapAStarDistance.get(start).setGoalDistance(0);
-		pq.add(mapAStarDistance.get(start));
-		int count = 0;
-		while (pq.size() != 0)
+		// no path can lead from start's component to goal's
+		if (!net.components().mayReach(s, g))
+			return null;
+		if (s == g)
+			return new ArrayList<GeographicPoint>(Collections.singletonList(start));
+		double[] weights = edgeWeights(net, weighting);
+		TurnCosts costs = turnCosts;
+		TurnCosts.Resolved turns = net.fromTopology(TURN_COSTS, costs, costs::resolve);
+		double estimatePerKm = weighting.minCostPerKm(speeds.getMaxSpeed());
+		SearchState state = SearchState.forCurrentThread();
+		// one entry per edge: the cost of arriving at its end, and the edge before it
+		state.reset(net.numEdges);
+		for (int e : net.out[s])
 		{
-			GeographicPoint curr = pq.poll().getPoint();
-			count++;
-			// Hook for visualization.
-			nodeSearched.accept(curr);
-			if (!visited.contains(curr))
+			state.reach(e, weights[e], -1);
+			state.push(e, weights[e] + net.points[net.edgeTo[e]].distance(goal) * estimatePerKm);
+		}
+		while (!state.isHeapEmpty())
+		{
+			int in = state.poll();
+			if (state.isSettled(in))
+				continue;
+			state.settle(in);
+			int curr = net.edgeTo[in];
+			nodeSearched.accept(net.points[curr]);
+			if (curr == g)
+				return buildEdgePath(net, state, in);
+			double currCost = state.cost(in);
+			for (int e : net.out[curr])
 			{
-				visited.add(curr);
-				if (curr.distance(goal) == 0)
+				if (state.isSettled(e))
+					continue;
+				double cost = currCost + turns.cost(in, e) + weights[e];
+				if (cost < state.cost(e))
 				{
-					list.add(curr);		
-					break;
-				}
-				for (GeographicPoint point : map.get(curr).keySet())
-				{
-					if (!visited.contains(point))
-					{
-						double currSourceDistance = mapAStarDistance.get(curr).getSourceDistance() + map.get(curr).get(point).getLength();
-						double currGoalDistance = point.distance(goal);
-						if (currSourceDistance + currGoalDistance < mapAStarDistance.get(point).getTotalDistance())
-						{
-							mapAStarDistance.get(point).setSourceDistance(currSourceDistance);
-							mapAStarDistance.get(point).setGoalDistance(currGoalDistance);
-							parent.put(point, curr);
-							pq.add(new AStarDistance(point, currSourceDistance, currGoalDistance));
-						}
-					}
+					state.reach(e, cost, in);
+					state.push(e, cost + net.points[net.edgeTo[e]].distance(goal) * estimatePerKm);
 				}
 			}
 		}
-		if (list.size() == 0)	
-			return null;
-		GeographicPoint point = list.get(0);
-		while (parent.containsKey(point))	
+		return null;
+	}
+	
+	// Walk the chain of edges back from the last one of an edge-based search.
+	private static List<GeographicPoint> buildEdgePath(RoadNetwork net, SearchState state, int lastEdge)
+	{
+		List<GeographicPoint> list = new ArrayList<GeographicPoint>();
+		int e = lastEdge;
+		list.add(net.points[net.edgeTo[e]]);
+		for (int prev = state.parentEdge(e); prev >= 0; prev = state.parentEdge(e))
 		{
-			GeographicPoint curr = parent.get(point);
-			list.add(curr);
-			point = curr;
+			e = prev;
+			list.add(net.points[net.edgeTo[e]]);
 		}
+		list.add(net.points[net.edgeFrom[e]]);
+		// reverse GeographicPoints in the result path to get correct order.
 		Collections.reverse(list);
-		System.out.println("AStarSearch: " + count);
 		return list;
-	}*/
+	}
 	
-	// shortest time version of A star search
-	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
-	{	
-		List<GeographicPoint> list = new ArrayList<GeographicPoint>();
-		if (!map.containsKey(start) || !map.containsKey(goal))	
+	/**
+	 * Set the daily speed profiles used by timeDependentSearch. The table is
+	 * copied, so changing it afterwards has no effect until it is set again.
+	 * @param profiles The speed profiles, by road type and by road.
+	 */
+	public void setSpeedProfiles(SpeedProfiles profiles)
+	{
+		speedProfiles = profiles.copy();
+	}
+	
+	/** Find the fastest path from start to goal when leaving at a given time,
+	 * taking the speed profiles of the roads into account.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureTime The time of day to leave, in hours (e.g. 17.5 for 5:30pm)
+	 * @return The list of intersections that form the fastest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> timeDependentSearch(GeographicPoint start, GeographicPoint goal,
+			double departureTime)
+	{
+		// Dummy variable for calling the search algorithms
+		Consumer<GeographicPoint> temp = (x) -> {};
+		return timeDependentSearch(start, goal, departureTime, temp);
+	}
+	
+	/** Find the fastest path from start to goal when leaving at a given time,
+	 * taking the speed profiles of the roads into account.
+	 * This is an A* search whose edge costs depend on the time the edge is
+	 * entered: the road's current travel time, including live traffic, is
+	 * driven at the speed factor of its profile as that changes along the
+	 * way (SpeedProfiles.arrival). Entering a road later never means leaving
+	 * it earlier, so the search finds the fastest route. The cost of each
+	 * vertex is its arrival time.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureTime The time of day to leave, in hours (e.g. 17.5 for 5:30pm)
+	 * @param nodeSearched A hook for visualization.
+	 * @return The list of intersections that form the fastest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> timeDependentSearch(GeographicPoint start, GeographicPoint goal,
+			double departureTime, Consumer<GeographicPoint> nodeSearched)
+	{
+		RoadNetwork net = network();
+		int s = net.indexOf(start);
+		int g = net.indexOf(goal);
+		if (s < 0 || g < 0)
 			return null;
-		PriorityQueue<AStarDuration> pq = new PriorityQueue<AStarDuration>();
-		Set<GeographicPoint> visited = new HashSet<GeographicPoint>();
-		Map<GeographicPoint, GeographicPoint> parent = new HashMap<GeographicPoint, GeographicPoint>();
-		mapAStarDuration.get(start).setSourceTime(0);
-		mapAStarDuration.get(start).setGoalTime(0);
-		pq.add(mapAStarDuration.get(start));
-		int count = 0;
-		while (pq.size() != 0)
+		// no path can lead from start's component to goal's
+		if (!net.components().mayReach(s, g))
+			return null;
+		SpeedProfiles profiles = speedProfiles;
+		short[] edgeProfiles = net.fromTopology(SPEED_PROFILES, profiles, profiles::resolve);
+		// no road is ever faster than the fastest speed times the fastest profile factor, which keeps the estimate optimistic
+		double maxSpeed = speeds.getMaxSpeed() * profiles.getMaxFactor();
+		SearchState state = SearchState.forCurrentThread();
+		state.reset(net.getNumVertices());
+		state.reach(s, departureTime, -1);
+		state.push(s, departureTime);
+		while (!state.isHeapEmpty())
 		{
-			GeographicPoint curr = pq.poll().getPoint();
-			count++;
-			nodeSearched.accept(curr);
-			if (!visited.contains(curr))
+			int curr = state.poll();
+			nodeSearched.accept(net.points[curr]);
+			if (state.isSettled(curr))
+				continue;
+			state.settle(curr);
+			if (curr == g)
+				return buildPath(net, state, g);
+			double now = state.cost(curr);
+			for (int e : net.out[curr])
 			{
-				visited.add(curr);
-				if (curr.distance(goal) == 0)
+				int next = net.edgeTo[e];
+				if (state.isSettled(next))
+					continue;
+				double arrival = profiles.arrival(edgeProfiles[e], now, net.times[e]);
+				if (arrival < state.cost(next))
 				{
-					list.add(curr);		
-					break;
-				}
-				for (GeographicPoint point : map.get(curr).keySet())
-				{
-					if (!visited.contains(point))
-					{
-						double currSourceTime = mapAStarDuration.get(curr).getSourceTime() + map.get(curr).get(point).getTime();
-						double currGoalTime = point.distance(goal) / 65;
-						if (currSourceTime + currGoalTime < mapAStarDuration.get(point).getTotalTime())
-						{
-							mapAStarDuration.get(point).setSourceTime(currSourceTime);
-							mapAStarDuration.get(point).setGoalTime(currGoalTime);
-							parent.put(point, curr);
-							pq.add(new AStarDuration(point, currSourceTime, currGoalTime));
-						}
-					}
+					state.reach(next, arrival, e);
+					state.push(next, arrival + net.points[next].distance(goal) / maxSpeed);
 				}
 			}
 		}
-		if (list.size() == 0)	
-			return null;
-		GeographicPoint point = list.get(0);
-		while (parent.containsKey(point))	
-		{
-			GeographicPoint curr = parent.get(point);
-			list.add(curr);
-			point = curr;
-		}
-		Collections.reverse(list);
-		System.out.println("AStarSearch: " + count);
-		return list;
-	}	
-	
-	
-				
+		return null;
+	}
 	
 	public static void main(String[] args)
 	{
@@ -483,6 +1127,27 @@ public class MapGraph {
 		GraphLoader.loadRoadMap("data/testdata/simpletest.map", firstMap);
 		System.out.println("DONE.");
 		
+		// A road added or retyped and then removed in the same delta must
+		// leave nothing behind, not even the new intersection.
+		GeographicPoint p = new GeographicPoint(1.0, 1.0);
+		GeographicPoint q = new GeographicPoint(4.0, 1.0);
+		GeographicPoint r = new GeographicPoint(9.0, 9.0);
+		int numVertices = firstMap.getNumVertices();
+		int numEdges = firstMap.getNumEdges();
+		firstMap.applyDelta(new RoadDelta()
+				.addRoad(q, r, "new", "residential", 1.0, new ArrayList<GeographicPoint>())
+				.removeRoad(q, r));
+		firstMap.addVertex(new GeographicPoint(9.0, 8.0));
+		System.out.println("Test of applyDelta, add then remove: should be true true true");
+		System.out.println((firstMap.getNumVertices() == numVertices + 1) + " "
+				+ (firstMap.getNumEdges() == numEdges) + " " + !firstMap.getVertices().contains(r));
+		firstMap.applyDelta(new RoadDelta()
+				.changeRoadType(p, q, "motorway")
+				.removeRoad(p, q));
+		firstMap.addVertex(new GeographicPoint(9.0, 7.0));
+		System.out.println("Test of applyDelta, retype then remove: should be true true");
+		System.out.println((firstMap.getNumEdges() == numEdges - 1) + " " + (firstMap.getRoad(p, q) == null));
+		
 		/*MapGraph simpleTestMap = new MapGraph();
 		GraphLoader.loadRoadMap("data/testdata/simpletest.map", simpleTestMap);
 		
@@ -1,5 +1,7 @@
 package roadgraph;
 
+import java.util.List;
+
 import geography.GeographicPoint;
 
 
@@ -11,17 +13,60 @@ public class Road {
 	private double length;
 	private GeographicPoint from;
 	private GeographicPoint to;
+	private int typeId;
 	private double time;
+	// compass direction, in degrees, the road leaves from and arrives at to
+	private float startHeading;
+	private float endHeading;
 	
-	Road(GeographicPoint from, GeographicPoint to, String roadName, String roadType, double length)
+	Road(GeographicPoint from, GeographicPoint to, String roadName, String roadType, double length,
+			List<GeographicPoint> geometry, SpeedTable speeds)
+	{
+		this(from, to, roadName, roadType, speeds.typeId(roadType), length, geometry, speeds);
+	}
+	
+	// typeId is the id of roadType in speeds, which loaders look up once per
+	// road type rather than once per road.
+	Road(GeographicPoint from, GeographicPoint to, String roadName, String roadType, int typeId,
+			double length, List<GeographicPoint> geometry, SpeedTable speeds)
 	{
 		this.from = from;
 		this.to = to;
 		this.roadName = roadName;
 		this.roadType = roadType;
 		this.length = length;
-		SpeedLimit speed;
-		time = length / SpeedLimit.valueOf(roadType).getSpeed();
+		this.typeId = typeId;
+		time = length / speeds.getSpeed(typeId);
+		boolean straight = geometry == null || geometry.isEmpty();
+		startHeading = heading(from, straight ? to : geometry.get(0));
+		endHeading = heading(straight ? from : geometry.get(geometry.size() - 1), to);
+	}
+	
+	// The same road with a different road type.
+	Road withRoadType(String newType, SpeedTable speeds)
+	{
+		Road road = new Road(from, to, roadName, newType, length, null, speeds);
+		road.startHeading = startHeading;
+		road.endHeading = endHeading;
+		return road;
+	}
+	
+	// This road followed by next, which starts where this one ends, as one
+	// road. Both must have the same road type.
+	Road join(Road next, SpeedTable speeds)
+	{
+		Road road = new Road(from, next.to, roadName, roadType, typeId, length + next.length, null, speeds);
+		road.startHeading = startHeading;
+		road.endHeading = next.endHeading;
+		return road;
+	}
+	
+	// Compass direction from a to b in degrees, 0 is north and 90 is east.
+	private static float heading(GeographicPoint a, GeographicPoint b)
+	{
+		double dx = (b.getY() - a.getY()) * Math.cos(Math.toRadians(a.getX()));
+		double dy = b.getX() - a.getX();
+		return (float) Math.toDegrees(Math.atan2(dx, dy));
 	}
 	
 	public double getLength()
@@ -34,4 +79,40 @@ public class Road {
 		return time;
 	}
 	
+	public GeographicPoint getFrom()
+	{
+		return from;
+	}
+	
+	public GeographicPoint getTo()
+	{
+		return to;
+	}
+	
+	public String getRoadName()
+	{
+		return roadName;
+	}
+	
+	public String getRoadType()
+	{
+		return roadType;
+	}
+	
+	// id of the road type in the SpeedTable the road was timed with
+	int getTypeId()
+	{
+		return typeId;
+	}
+	
+	float getStartHeading()
+	{
+		return startHeading;
+	}
+	
+	float getEndHeading()
+	{
+		return endHeading;
+	}
+	
 }
@@ -0,0 +1,140 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+
+/**
+ * A batch of changes to the roads of a MapGraph: roads added, roads
+ * removed, or roads whose type (and therefore travel time) changed.
+ * The changes are applied in order, and MapGraph.applyDelta publishes
+ * them all at once.
+ *
+ * @author Hao Zhang
+ */
+public class RoadDelta {
+	enum Kind { ADD, REMOVE, RETYPE }
+
+	// One change to the road from -> to.
+	static class Change {
+		final Kind kind;
+		final GeographicPoint from;
+		final GeographicPoint to;
+		final String roadName;
+		final String roadType;
+		final double length;
+		final List<GeographicPoint> geometry;
+
+		Change(Kind kind, GeographicPoint from, GeographicPoint to, String roadName,
+				String roadType, double length, List<GeographicPoint> geometry)
+		{
+			this.kind = kind;
+			this.from = from;
+			this.to = to;
+			this.roadName = roadName;
+			this.roadType = roadType;
+			this.length = length;
+			this.geometry = geometry;
+		}
+	}
+
+	private List<Change> changes = new ArrayList<Change>();
+
+	/**
+	 * Add a directed road from -> to. A road already between the two
+	 * points is replaced. Points that are not yet in the graph are added
+	 * as new intersections.
+	 * @param geometry The points between from and to that give the road
+	 *   its shape, used when displaying routes and to measure turn angles.
+	 * @return this delta
+	 */
+	public RoadDelta addRoad(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry)
+	{
+		if (from == null || to == null)
+			throw new IllegalArgumentException("GeographicPoints cannot be null.");
+		changes.add(new Change(Kind.ADD, from, to, roadName, roadType, length,
+				new ArrayList<GeographicPoint>(geometry)));
+		return this;
+	}
+
+	/**
+	 * Remove the directed road from -> to.
+	 * @return this delta
+	 */
+	public RoadDelta removeRoad(GeographicPoint from, GeographicPoint to)
+	{
+		changes.add(new Change(Kind.REMOVE, from, to, null, null, 0, null));
+		return this;
+	}
+
+	/**
+	 * Change the type of the directed road from -> to, which changes its
+	 * travel time.
+	 * @return this delta
+	 */
+	public RoadDelta changeRoadType(GeographicPoint from, GeographicPoint to, String roadType)
+	{
+		changes.add(new Change(Kind.RETYPE, from, to, null, roadType, 0, null));
+		return this;
+	}
+
+	/**
+	 * Bring the road geometry used for display in line with this delta,
+	 * after it has been applied to graph. The map passed in is not
+	 * modified; a new one is returned that shares every unchanged set.
+	 * @param segments The road segments by intersection, as built by
+	 *   GraphLoader.loadRoadMap.
+	 * @param graph The graph this delta was applied to.
+	 * @return The updated road segments.
+	 */
+	public HashMap<GeographicPoint, HashSet<RoadSegment>> applyToSegments(
+			HashMap<GeographicPoint, HashSet<RoadSegment>> segments, MapGraph graph)
+	{
+		HashMap<GeographicPoint, HashSet<RoadSegment>> result =
+				new HashMap<GeographicPoint, HashSet<RoadSegment>>(segments);
+		Set<GeographicPoint> copied = new HashSet<GeographicPoint>();
+		for (Change change : changes)
+		{
+			if (change.kind == Kind.ADD)
+			{
+				RoadSegment seg = new RoadSegment(change.from, change.to, change.geometry,
+						change.roadName, change.roadType, change.length);
+				segmentsAt(result, copied, change.from).add(seg);
+				segmentsAt(result, copied, change.to).add(seg);
+			}
+			else if (change.kind == Kind.REMOVE && graph.getRoad(change.from, change.to) == null
+					&& graph.getRoad(change.to, change.from) == null)
+			{
+				// a segment draws both directions, so only drop it once neither is left
+				segmentsAt(result, copied, change.from).removeIf(seg -> change.to.equals(seg.getOtherPoint(change.from)));
+				segmentsAt(result, copied, change.to).removeIf(seg -> change.from.equals(seg.getOtherPoint(change.to)));
+			}
+		}
+		return result;
+	}
+	
+	// Get the segment set of point in result, copying it first so the original map is untouched.
+	private static HashSet<RoadSegment> segmentsAt(HashMap<GeographicPoint, HashSet<RoadSegment>> result,
+			Set<GeographicPoint> copied, GeographicPoint point)
+	{
+		HashSet<RoadSegment> segs = result.get(point);
+		if (copied.add(point))
+		{
+			segs = segs == null ? new HashSet<RoadSegment>() : new HashSet<RoadSegment>(segs);
+			result.put(point, segs);
+		}
+		return segs;
+	}
+	
+	List<Change> getChanges()
+	{
+		return Collections.unmodifiableList(changes);
+	}
+}
@@ -0,0 +1,489 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import geography.GeographicPoint;
+
+/**
+ * An immutable, int-indexed snapshot of the road graph that the search
+ * algorithms run on.
+ *
+ * Vertices are numbered 0 .. n-1 and edges 0 .. m-1. Every edge id
+ * stays valid for the lifetime of the graph: removing a road only clears
+ * its slot in roads, and new roads are appended. A snapshot is never
+ * modified once published, so a search that has read one can keep using
+ * it while MapGraph publishes a newer one.
+ *
+ * The travel time of every edge lives in its own array, times, so that
+ * live traffic can be applied by swapping in a new array (withTimes)
+ * without touching the Road objects or the topology. Data derived from
+ * the topology alone, like the in-edge rows or the snap index, is shared
+ * with the snapshots withTimes returns rather than built again.
+ *
+ * @author Hao Zhang
+ */
+final class RoadNetwork {
+	// vertex id -> location
+	final GeographicPoint[] points;
+	// location -> vertex id
+	final Map<GeographicPoint, Integer> ids;
+	// vertex id -> ids of its outgoing edges
+	final int[][] out;
+	// edge id -> end points, and the road it represents (null once removed)
+	final int[] edgeFrom;
+	final int[] edgeTo;
+	final Road[] roads;
+	final int numEdges;
+	// edge id -> current travel time, including traffic
+	final double[] times;
+	// bumped every time a new times array is published
+	final long weightVersion;
+	// strongly connected components, computed on first use and shared with
+	// snapshots that only differ in travel times
+	private volatile Components components;
+	// key of the incoming edge rows in fromTopology
+	private static final Object IN_EDGES = new Object();
+	// data derived from this snapshot that may depend on the travel times (e.g. edge weights), by what it was derived from
+	private final ConcurrentHashMap<Object, Object> derived = new ConcurrentHashMap<Object, Object>();
+	// data derived from the roads alone (e.g. resolved speed profiles), shared with snapshots that only differ in travel times
+	private final ConcurrentHashMap<Object, Object> topology;
+
+	private RoadNetwork(GeographicPoint[] points, Map<GeographicPoint, Integer> ids, int[][] out,
+			int[] edgeFrom, int[] edgeTo, Road[] roads, int numEdges, double[] times, long weightVersion)
+	{
+		this(points, ids, out, edgeFrom, edgeTo, roads, numEdges, times, weightVersion,
+				new ConcurrentHashMap<Object, Object>());
+	}
+
+	private RoadNetwork(GeographicPoint[] points, Map<GeographicPoint, Integer> ids, int[][] out,
+			int[] edgeFrom, int[] edgeTo, Road[] roads, int numEdges, double[] times, long weightVersion,
+			ConcurrentHashMap<Object, Object> topology)
+	{
+		this.topology = topology;
+		this.points = points;
+		this.ids = ids;
+		this.out = out;
+		this.edgeFrom = edgeFrom;
+		this.edgeTo = edgeTo;
+		this.roads = roads;
+		this.numEdges = numEdges;
+		this.times = times;
+		this.weightVersion = weightVersion;
+	}
+
+	/**
+	 * Build a snapshot from the adjacency map MapGraph fills while loading.
+	 * @param previous The snapshot the graph had before it was changed, or
+	 *   null. Roads it also has keep their travel times from it, and the
+	 *   new snapshot keeps its weightVersion; other roads start at their
+	 *   free-flow time.
+	 */
+	static RoadNetwork build(Map<GeographicPoint, Map<GeographicPoint, Road>> adjacency, RoadNetwork previous)
+	{
+		int n = adjacency.size();
+		GeographicPoint[] points = new GeographicPoint[n];
+		Map<GeographicPoint, Integer> ids = new HashMap<GeographicPoint, Integer>(n * 2);
+		int m = 0;
+		for (Map.Entry<GeographicPoint, Map<GeographicPoint, Road>> entry : adjacency.entrySet())
+		{
+			points[ids.size()] = entry.getKey();
+			ids.put(entry.getKey(), ids.size());
+			m += entry.getValue().size();
+		}
+		int[][] out = new int[n][];
+		int[] edgeFrom = new int[m];
+		int[] edgeTo = new int[m];
+		Road[] roads = new Road[m];
+		double[] times = new double[m];
+		int e = 0;
+		for (int v = 0; v < n; v++)
+		{
+			Map<GeographicPoint, Road> edges = adjacency.get(points[v]);
+			out[v] = new int[edges.size()];
+			int i = 0;
+			for (Map.Entry<GeographicPoint, Road> edge : edges.entrySet())
+			{
+				edgeFrom[e] = v;
+				edgeTo[e] = ids.get(edge.getKey());
+				roads[e] = edge.getValue();
+				times[e] = roads[e].getTime();
+				if (previous != null)
+				{
+					int before = previous.indexOf(points[v]);
+					before = before < 0 ? -1 : previous.findEdge(before, previous.indexOf(edge.getKey()));
+					if (before >= 0 && previous.roads[before] == roads[e])
+						times[e] = previous.times[before];
+				}
+				out[v][i++] = e++;
+			}
+		}
+		return new RoadNetwork(points, ids, out, edgeFrom, edgeTo, roads, m, times,
+				previous == null ? 0 : previous.weightVersion);
+	}
+
+	int getNumVertices()
+	{
+		return points.length;
+	}
+
+	Set<GeographicPoint> getVertices()
+	{
+		return ids.keySet();
+	}
+
+	/**
+	 * Return data derived from this snapshot, computing it on first use.
+	 * Because a snapshot never changes, the result stays valid for as long
+	 * as the snapshot is in use and is dropped together with it.
+	 * @param key What the data is derived from; compared with equals.
+	 */
+	<T> T derived(Object key, Function<RoadNetwork, T> compute)
+	{
+		return cached(derived, key, compute);
+	}
+
+	/**
+	 * Return data derived from this snapshot and a source, keeping only the
+	 * data of the latest source in each slot. This is for settings that
+	 * are replaced as a whole: replacing them again and again while a
+	 * snapshot is in use then swaps one entry instead of keeping an array
+	 * for every version.
+	 * @param slot The kind of data, e.g. a constant key per setting
+	 * @param source What the data is derived from; compared with equals.
+	 */
+	<T> T derived(Object slot, Object source, Function<RoadNetwork, T> compute)
+	{
+		return latest(derived, slot, source, compute);
+	}
+
+	/**
+	 * Like derived, for data that only depends on the vertices and roads,
+	 * not on the travel times. It is kept across updates of the travel times.
+	 */
+	<T> T fromTopology(Object key, Function<RoadNetwork, T> compute)
+	{
+		return cached(topology, key, compute);
+	}
+
+	/**
+	 * Like derived with a slot, for data that only depends on the vertices
+	 * and roads, like the speed profiles of the roads. It is kept across
+	 * updates of the travel times.
+	 */
+	<T> T fromTopology(Object slot, Object source, Function<RoadNetwork, T> compute)
+	{
+		return latest(topology, slot, source, compute);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T cached(ConcurrentHashMap<Object, Object> data, Object key, Function<RoadNetwork, T> compute)
+	{
+		Object value = data.get(key);
+		if (value == null)
+		{
+			value = compute.apply(this);
+			Object raced = data.putIfAbsent(key, value);
+			if (raced != null)
+				value = raced;
+		}
+		return (T) value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T latest(ConcurrentHashMap<Object, Object> data, Object slot, Object source,
+			Function<RoadNetwork, T> compute)
+	{
+		Object entry = data.get(slot);
+		if (entry instanceof Latest && ((Latest) entry).source.equals(source))
+			return (T) ((Latest) entry).value;
+		T value = compute.apply(this);
+		// a search that raced with another source may overwrite it; each gets its own value either way
+		data.put(slot, new Latest(source, value));
+		return value;
+	}
+
+	// The source a slot's data was derived from, and the data.
+	private static final class Latest {
+		final Object source;
+		final Object value;
+
+		Latest(Object source, Object value)
+		{
+			this.source = source;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * @return the strongly connected components of this snapshot.
+	 */
+	Components components()
+	{
+		Components c = components;
+		if (c == null)
+			components = c = Components.compute(this);
+		return c;
+	}
+
+	/**
+	 * @return vertex id -> ids of its incoming edges, built on first use.
+	 */
+	int[][] in()
+	{
+		return fromTopology(IN_EDGES, net -> {
+			int n = net.getNumVertices();
+			int[] degree = new int[n];
+			for (int[] row : net.out)
+			{
+				for (int e : row)
+					degree[net.edgeTo[e]]++;
+			}
+			int[][] in = new int[n][];
+			for (int v = 0; v < n; v++)
+				in[v] = new int[degree[v]];
+			for (int[] row : net.out)
+			{
+				for (int e : row)
+				{
+					int v = net.edgeTo[e];
+					in[v][--degree[v]] = e;
+				}
+			}
+			return in;
+		});
+	}
+
+	/**
+	 * @return the vertex id of a location, or -1 if it is not in the graph.
+	 */
+	int indexOf(GeographicPoint point)
+	{
+		Integer id = point == null ? null : ids.get(point);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the id of the edge from -> to, or -1 if there is none.
+	 */
+	int findEdge(int from, int to)
+	{
+		for (int e : out[from])
+		{
+			if (edgeTo[e] == to)
+				return e;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return a new snapshot with the delta applied. Only the rows of the
+	 * vertices the delta touches are rebuilt; all other rows are shared
+	 * with this snapshot. This snapshot is left unchanged. A road that is
+	 * added and removed again within the delta leaves nothing behind, not
+	 * even the intersections it brought in.
+	 * @param speeds The table new and retyped roads are timed with.
+	 * @throws IllegalArgumentException if the delta refers to a road that
+	 *   does not exist, or adds a road of length zero. Nothing is applied
+	 *   in that case.
+	 */
+	RoadNetwork withDelta(RoadDelta delta, SpeedTable speeds)
+	{
+		GeographicPoint[] newPoints = points;
+		Map<GeographicPoint, Integer> newIds = ids;
+		int[][] newOut = out.clone();
+		// Edge arrays keep spare capacity at the end. Older snapshots never
+		// read past their own numEdges, so appending into that space is safe
+		// and only the road slots of existing edges need copy-on-write.
+		int[] newFrom = edgeFrom;
+		int[] newTo = edgeTo;
+		Road[] newRoads = roads;
+		double[] newTimes = times;
+		boolean roadsCopied = false;
+		int m = numEdges;
+
+		for (RoadDelta.Change change : delta.getChanges())
+		{
+			int from = newIds.containsKey(change.from) ? newIds.get(change.from) : -1;
+			int to = newIds.containsKey(change.to) ? newIds.get(change.to) : -1;
+			int e = from < 0 || to < 0 ? -1 : findEdge(newOut, newTo, newRoads, from, to);
+			if (e < 0 && change.kind != RoadDelta.Kind.ADD)
+				throw new IllegalArgumentException("No road from " + change.from + " to " + change.to);
+			if (e >= 0 && !roadsCopied)
+			{
+				newRoads = newRoads.clone();
+				newTimes = newTimes.clone();
+				roadsCopied = true;
+			}
+
+			switch (change.kind)
+			{
+			case ADD:
+				if (change.length == 0)
+					throw new IllegalArgumentException("length cannot be zero.");
+				Road road = new Road(change.from, change.to, change.roadName, change.roadType, change.length,
+						change.geometry, speeds);
+				if (e >= 0)
+				{
+					// like addEdge, a new road between the same two points replaces the old one
+					newRoads[e] = road;
+					newTimes[e] = road.getTime();
+					break;
+				}
+				if (from < 0 || to < 0)
+				{
+					if (newIds == ids)
+						newIds = new HashMap<GeographicPoint, Integer>(ids);
+					if (from < 0)
+						from = addVertex(newIds, change.from);
+					if (to < 0)
+						to = addVertex(newIds, change.to);
+					newPoints = Arrays.copyOf(newPoints, newIds.size());
+					newOut = Arrays.copyOf(newOut, newIds.size());
+					newPoints[from] = change.from;
+					newPoints[to] = change.to;
+					if (newOut[from] == null)
+						newOut[from] = new int[0];
+					if (newOut[to] == null)
+						newOut[to] = new int[0];
+				}
+				if (m == newFrom.length)
+				{
+					int capacity = Math.max(16, m + (m >> 3));
+					newFrom = Arrays.copyOf(newFrom, capacity);
+					newTo = Arrays.copyOf(newTo, capacity);
+					newRoads = Arrays.copyOf(newRoads, capacity);
+					newTimes = Arrays.copyOf(newTimes, capacity);
+					roadsCopied = true;
+				}
+				newFrom[m] = from;
+				newTo[m] = to;
+				newRoads[m] = road;
+				newTimes[m] = road.getTime();
+				newOut[from] = Arrays.copyOf(newOut[from], newOut[from].length + 1);
+				newOut[from][newOut[from].length - 1] = m;
+				m++;
+				break;
+			case REMOVE:
+				newRoads[e] = null;
+				int[] row = new int[newOut[from].length - 1];
+				int i = 0;
+				for (int edge : newOut[from])
+				{
+					if (edge != e)
+						row[i++] = edge;
+				}
+				newOut[from] = row;
+				break;
+			case RETYPE:
+				newRoads[e] = newRoads[e].withRoadType(change.roadType, speeds);
+				newTimes[e] = newRoads[e].getTime();
+				break;
+			}
+		}
+
+		// A road added and removed again within the delta leaves a dead edge,
+		// and maybe intersections with no roads left; drop both, so only the
+		// net change is applied. New edges are only in the rows this method
+		// built, so those rows can be renumbered in place.
+		int live = numEdges;
+		for (int e = numEdges; e < m; e++)
+		{
+			if (newRoads[e] == null)
+				continue;
+			if (live < e)
+			{
+				int[] row = newOut[newFrom[e]];
+				for (int i = 0; i < row.length; i++)
+				{
+					if (row[i] == e)
+						row[i] = live;
+				}
+				newFrom[live] = newFrom[e];
+				newTo[live] = newTo[e];
+				newRoads[live] = newRoads[e];
+				newTimes[live] = newTimes[e];
+			}
+			live++;
+		}
+		for (int e = live; e < m; e++)
+			newRoads[e] = null;
+		m = live;
+		if (newPoints.length > points.length)
+		{
+			// only new edges can reach the new intersections
+			boolean[] hasRoad = new boolean[newPoints.length - points.length];
+			for (int e = numEdges; e < m; e++)
+			{
+				if (newFrom[e] >= points.length)
+					hasRoad[newFrom[e] - points.length] = true;
+				if (newTo[e] >= points.length)
+					hasRoad[newTo[e] - points.length] = true;
+			}
+			int[] newId = new int[hasRoad.length];
+			int n = points.length;
+			for (int i = 0; i < hasRoad.length; i++)
+				newId[i] = hasRoad[i] ? n++ : -1;
+			if (n < newPoints.length)
+			{
+				GeographicPoint[] keptPoints = Arrays.copyOf(points, n);
+				int[][] keptOut = Arrays.copyOf(newOut, n);
+				Map<GeographicPoint, Integer> keptIds = new HashMap<GeographicPoint, Integer>(ids);
+				for (int i = 0; i < hasRoad.length; i++)
+				{
+					if (newId[i] < 0)
+						continue;
+					keptPoints[newId[i]] = newPoints[points.length + i];
+					keptOut[newId[i]] = newOut[points.length + i];
+					keptIds.put(keptPoints[newId[i]], newId[i]);
+				}
+				for (int e = numEdges; e < m; e++)
+				{
+					if (newFrom[e] >= points.length)
+						newFrom[e] = newId[newFrom[e] - points.length];
+					if (newTo[e] >= points.length)
+						newTo[e] = newId[newTo[e] - points.length];
+				}
+				newPoints = keptPoints;
+				newOut = keptOut;
+				newIds = keptIds;
+			}
+		}
+		return new RoadNetwork(newPoints, newIds, newOut, newFrom, newTo, newRoads, m, newTimes, weightVersion);
+	}
+
+	/**
+	 * Return a snapshot with the same roads but new edge travel times. It
+	 * shares the components and everything derived from the topology with
+	 * this snapshot.
+	 * @param newTimes Travel time per edge id; must cover every edge id.
+	 */
+	RoadNetwork withTimes(double[] newTimes)
+	{
+		RoadNetwork next = new RoadNetwork(points, ids, out, edgeFrom, edgeTo, roads, numEdges, newTimes, weightVersion + 1,
+				topology);
+		next.components = components;
+		return next;
+	}
+
+	private static int addVertex(Map<GeographicPoint, Integer> ids, GeographicPoint point)
+	{
+		int id = ids.size();
+		ids.put(point, id);
+		return id;
+	}
+
+	private static int findEdge(int[][] out, int[] edgeTo, Road[] roads, int from, int to)
+	{
+		for (int e : out[from])
+		{
+			if (edgeTo[e] == to && roads[e] != null)
+				return e;
+		}
+		return -1;
+	}
+}
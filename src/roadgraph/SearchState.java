@@ -0,0 +1,175 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space for one shortest path search: tentative costs, the edge
+ * each vertex was reached by, and a binary min-heap of vertices.
+ *
+ * Arrays are sized to the graph once and reused across searches. Instead
+ * of clearing them, every search bumps a stamp and an entry only counts
+ * if its stamp matches, so starting a search costs O(1) rather than O(V).
+ * A state must not be shared between threads; use forCurrentThread().
+ *
+ * @author Hao Zhang
+ */
+final class SearchState {
+	private static final ThreadLocal<SearchState> PER_THREAD = new ThreadLocal<SearchState>() {
+		@Override
+		protected SearchState initialValue()
+		{
+			return new SearchState();
+		}
+	};
+	// second state for the backward half of bidirectional searches
+	private static final ThreadLocal<SearchState> REVERSE_PER_THREAD = new ThreadLocal<SearchState>() {
+		@Override
+		protected SearchState initialValue()
+		{
+			return new SearchState();
+		}
+	};
+
+	private double[] cost = new double[0];
+	private int[] parentEdge = new int[0];
+	private int[] reachedStamp = new int[0];
+	private int[] settledStamp = new int[0];
+	private int stamp;
+
+	// heap of (key, vertex) pairs; a vertex may appear more than once and
+	// stale entries are skipped when polled
+	private double[] heapKeys = new double[64];
+	private int[] heapItems = new int[64];
+	private int heapSize;
+
+	/**
+	 * @return the search state reserved for the calling thread.
+	 */
+	static SearchState forCurrentThread()
+	{
+		return PER_THREAD.get();
+	}
+
+	/**
+	 * @return a second search state reserved for the calling thread, for
+	 *   the backward half of a bidirectional search.
+	 */
+	static SearchState reverseForCurrentThread()
+	{
+		return REVERSE_PER_THREAD.get();
+	}
+
+	/**
+	 * Prepare for a new search over a graph with numVertices vertices.
+	 */
+	void reset(int numVertices)
+	{
+		if (cost.length < numVertices)
+		{
+			int capacity = Math.max(numVertices, cost.length + (cost.length >> 1));
+			cost = new double[capacity];
+			parentEdge = new int[capacity];
+			reachedStamp = new int[capacity];
+			settledStamp = new int[capacity];
+			stamp = 0;
+		}
+		if (++stamp == Integer.MAX_VALUE)
+		{
+			Arrays.fill(reachedStamp, 0);
+			Arrays.fill(settledStamp, 0);
+			stamp = 1;
+		}
+		heapSize = 0;
+	}
+
+	/**
+	 * @return the best known cost of v, or infinity if v was not reached.
+	 */
+	double cost(int v)
+	{
+		return reachedStamp[v] == stamp ? cost[v] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the edge v was reached by, or -1 for the source or an unreached vertex.
+	 */
+	int parentEdge(int v)
+	{
+		return reachedStamp[v] == stamp ? parentEdge[v] : -1;
+	}
+
+	void reach(int v, double c, int edge)
+	{
+		reachedStamp[v] = stamp;
+		cost[v] = c;
+		parentEdge[v] = edge;
+	}
+
+	boolean isSettled(int v)
+	{
+		return settledStamp[v] == stamp;
+	}
+
+	void settle(int v)
+	{
+		settledStamp[v] = stamp;
+	}
+
+	boolean isHeapEmpty()
+	{
+		return heapSize == 0;
+	}
+
+	double peekKey()
+	{
+		return heapKeys[0];
+	}
+
+	void push(int v, double key)
+	{
+		if (heapSize == heapKeys.length)
+		{
+			heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+			heapItems = Arrays.copyOf(heapItems, heapSize * 2);
+		}
+		int i = heapSize++;
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (heapKeys[parent] <= key)
+				break;
+			heapKeys[i] = heapKeys[parent];
+			heapItems[i] = heapItems[parent];
+			i = parent;
+		}
+		heapKeys[i] = key;
+		heapItems[i] = v;
+	}
+
+	/**
+	 * Remove and return the vertex with the smallest key.
+	 */
+	int poll()
+	{
+		int top = heapItems[0];
+		heapSize--;
+		double key = heapKeys[heapSize];
+		int item = heapItems[heapSize];
+		int i = 0;
+		int half = heapSize >>> 1;
+		while (i < half)
+		{
+			int child = 2 * i + 1;
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child])
+				child++;
+			if (key <= heapKeys[child])
+				break;
+			heapKeys[i] = heapKeys[child];
+			heapItems[i] = heapItems[child];
+			i = child;
+		}
+		heapKeys[i] = key;
+		heapItems[i] = item;
+		return top;
+	}
+}
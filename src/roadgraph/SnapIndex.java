@@ -0,0 +1,150 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+import geography.GeographicPoint;
+import geography.PackedPoints;
+
+/**
+ * A uniform grid over the vertices of a snapshot, for finding the vertex
+ * nearest to an arbitrary location.
+ *
+ * Vertices are sorted by the cell they fall in, and the cells that hold
+ * any are kept in one sorted array of keys with the start of each cell's
+ * run, so the whole index is a few flat arrays. The locations of the
+ * vertices are kept packed in the same order, so scanning a cell reads
+ * one short run of ints rather than a GeographicPoint per vertex, with
+ * coordinates rounded to 1e-7 degrees. A query looks at the cell
+ * of the location and then at rings of cells around it, and stops once
+ * the next ring cannot hold anything closer than the best vertex so far.
+ *
+ * @author Hao Zhang
+ */
+final class SnapIndex {
+	// cell size in degrees, roughly 500 m
+	private static final double CELL = 0.005;
+	private static final double KM_PER_DEGREE = 111.2;
+
+	// sorted keys of the non-empty cells, and where each one's vertices start in vertices
+	private final long[] cells;
+	private final int[] start;
+	private final int[] vertices;
+	// the locations of vertices, in the same order
+	private final PackedPoints locations;
+	// range of cell coordinates that hold vertices
+	private final int minRow, maxRow, minCol, maxCol;
+	// the largest |latitude| of any vertex, to bound how narrow a cell gets
+	private final double maxAbsLat;
+
+	SnapIndex(RoadNetwork net)
+	{
+		int n = net.getNumVertices();
+		long[] keyed = new long[n];
+		int lowRow = Integer.MAX_VALUE, highRow = Integer.MIN_VALUE;
+		int lowCol = Integer.MAX_VALUE, highCol = Integer.MIN_VALUE;
+		double absLat = 0;
+		for (int v = 0; v < n; v++)
+		{
+			int row = row(net.points[v]);
+			int col = col(net.points[v]);
+			lowRow = Math.min(lowRow, row);
+			highRow = Math.max(highRow, row);
+			lowCol = Math.min(lowCol, col);
+			highCol = Math.max(highCol, col);
+			absLat = Math.max(absLat, Math.abs(net.points[v].getX()));
+			keyed[v] = key(row, col);
+		}
+		// sort vertex ids by cell key
+		Integer[] order = new Integer[n];
+		for (int v = 0; v < n; v++)
+			order[v] = v;
+		Arrays.sort(order, (a, b) -> Long.compare(keyed[a], keyed[b]));
+		vertices = new int[n];
+		locations = new PackedPoints(n);
+		long[] cellKeys = new long[n];
+		int[] cellStart = new int[n + 1];
+		int numCells = 0;
+		for (int i = 0; i < n; i++)
+		{
+			vertices[i] = order[i];
+			locations.add(net.points[order[i]]);
+			long k = keyed[order[i]];
+			if (numCells == 0 || cellKeys[numCells - 1] != k)
+			{
+				cellKeys[numCells] = k;
+				cellStart[numCells++] = i;
+			}
+		}
+		cellStart[numCells] = n;
+		cells = Arrays.copyOf(cellKeys, numCells);
+		start = Arrays.copyOf(cellStart, numCells + 1);
+		minRow = lowRow;
+		maxRow = highRow;
+		minCol = lowCol;
+		maxCol = highCol;
+		maxAbsLat = absLat;
+	}
+
+	/**
+	 * @return The id of the vertex nearest to location, or -1 if there are none.
+	 */
+	int nearest(GeographicPoint location)
+	{
+		if (cells.length == 0)
+			return -1;
+		int row = row(location);
+		int col = col(location);
+		// the narrowest a cell gets, in km, anywhere between the location and the vertices
+		double cellKm = CELL * KM_PER_DEGREE * Math.cos(Math.toRadians(Math.min(89, Math.max(maxAbsLat, Math.abs(location.getX())))));
+		int best = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		// rings closer than the nearest occupied cell are empty, so start there
+		int firstRing = Math.max(Math.max(minRow - row, row - maxRow), Math.max(minCol - col, col - maxCol));
+		for (int ring = Math.max(firstRing, 0); ; ring++)
+		{
+			// everything outside rings 0 .. ring-1 is at least (ring-1) cells away
+			if (best >= 0 && bestDistance <= (ring - 1) * cellKm)
+				break;
+			if (row - ring < minRow && row + ring > maxRow && col - ring < minCol && col + ring > maxCol)
+				break;
+			for (int r = Math.max(row - ring, minRow); r <= Math.min(row + ring, maxRow); r++)
+			{
+				// only the border of the ring; the inside was searched already
+				int step = r == row - ring || r == row + ring ? 1 : Math.max(2 * ring, 1);
+				for (int c = col - ring; c <= col + ring; c += step)
+				{
+					if (c < minCol || c > maxCol)
+						continue;
+					int i = Arrays.binarySearch(cells, key(r, c));
+					if (i < 0)
+						continue;
+					for (int j = start[i]; j < start[i + 1]; j++)
+					{
+						double d = locations.distance(j, location);
+						if (d < bestDistance)
+						{
+							bestDistance = d;
+							best = vertices[j];
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	private static int row(GeographicPoint p)
+	{
+		return (int) Math.floor(p.getX() / CELL);
+	}
+
+	private static int col(GeographicPoint p)
+	{
+		return (int) Math.floor(p.getY() / CELL);
+	}
+
+	private static long key(int row, int col)
+	{
+		return (long) row << 32 | (col & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,235 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import geography.GeographicPoint;
+
+/**
+ * A table of daily speed profiles for time-dependent routing.
+ *
+ * A profile is a piecewise-linear function from the hour of the day
+ * (0 up to 24) to a speed factor: 1 is free-flow speed, 0.5 means a road
+ * takes twice as long as usual. All profiles are stored back to back in
+ * two shared arrays, and a road only refers to its profile by a small id,
+ * so a whole city can share a handful of profiles.
+ *
+ * Profiles are assigned per road type, and can be overridden for single
+ * roads. Profile 0 is always the flat free-flow profile, used for every
+ * road without an assignment.
+ *
+ * @author Hao Zhang
+ */
+public class SpeedProfiles {
+	// profile p covers hours[start[p] .. start[p+1]) and the matching factors
+	private double[] hours;
+	private double[] factors;
+	private int[] start;
+	private int numProfiles;
+	private double maxFactor;
+
+	private Map<String, Integer> typeProfiles;
+	private Map<GeographicPoint, Map<GeographicPoint, Integer>> roadProfiles;
+
+	/**
+	 * Create a table holding only the flat free-flow profile.
+	 */
+	public SpeedProfiles()
+	{
+		hours = new double[0];
+		factors = new double[0];
+		start = new int[] {0};
+		numProfiles = 0;
+		maxFactor = 1;
+		typeProfiles = new HashMap<String, Integer>();
+		roadProfiles = new HashMap<GeographicPoint, Map<GeographicPoint, Integer>>();
+		addProfile(new double[] {0}, new double[] {1});
+	}
+
+	/**
+	 * Add a profile. Between two breakpoints the factor is interpolated
+	 * linearly; before the first and after the last it wraps around
+	 * midnight to the other end.
+	 * @param breakpoints Hours of the day, increasing, each in [0, 24).
+	 * @param speedFactors Speed factor at each breakpoint, all positive.
+	 * @return The id of the new profile.
+	 * @throws IllegalArgumentException If the arrays are empty, of different
+	 *   lengths, or out of range.
+	 */
+	public int addProfile(double[] breakpoints, double[] speedFactors)
+	{
+		if (breakpoints.length == 0 || breakpoints.length != speedFactors.length)
+			throw new IllegalArgumentException("Need one speed factor per breakpoint.");
+		for (int i = 0; i < breakpoints.length; i++)
+		{
+			if (breakpoints[i] < 0 || breakpoints[i] >= 24 || (i > 0 && breakpoints[i] <= breakpoints[i - 1]))
+				throw new IllegalArgumentException("Breakpoints must increase within [0, 24).");
+			if (speedFactors[i] <= 0)
+				throw new IllegalArgumentException("Speed factors must be positive.");
+			maxFactor = Math.max(maxFactor, speedFactors[i]);
+		}
+		if (numProfiles == Short.MAX_VALUE)
+			throw new IllegalStateException("Too many speed profiles.");
+		int from = start[numProfiles];
+		hours = Arrays.copyOf(hours, from + breakpoints.length);
+		factors = Arrays.copyOf(factors, from + breakpoints.length);
+		System.arraycopy(breakpoints, 0, hours, from, breakpoints.length);
+		System.arraycopy(speedFactors, 0, factors, from, speedFactors.length);
+		start = Arrays.copyOf(start, numProfiles + 2);
+		start[numProfiles + 1] = from + breakpoints.length;
+		return numProfiles++;
+	}
+
+	/**
+	 * Use a profile for every road of the given type.
+	 */
+	public void assignToRoadType(String roadType, int profile)
+	{
+		checkProfile(profile);
+		typeProfiles.put(roadType, profile);
+	}
+
+	/**
+	 * Use a profile for the road from -> to, overriding its road type's profile.
+	 */
+	public void assignToRoad(GeographicPoint from, GeographicPoint to, int profile)
+	{
+		checkProfile(profile);
+		roadProfiles.computeIfAbsent(from, k -> new HashMap<GeographicPoint, Integer>()).put(to, profile);
+	}
+
+	/**
+	 * @return The largest speed factor of any profile, used to keep the
+	 *   A* estimate optimistic.
+	 */
+	public double getMaxFactor()
+	{
+		return maxFactor;
+	}
+
+	/**
+	 * @return The speed factor of a profile at a time, in hours; times
+	 *   past 24 wrap around to the next day.
+	 */
+	public double factor(int profile, double time)
+	{
+		int from = start[profile];
+		int to = start[profile + 1];
+		if (to - from == 1)
+			return factors[from];
+		double hour = time % 24;
+		if (hour < 0)
+			hour += 24;
+		int i = from;
+		while (i < to && hours[i] <= hour)
+			i++;
+		// interpolate between breakpoint i-1 and i, wrapping around midnight
+		int before = i == from ? to - 1 : i - 1;
+		int after = i == to ? from : i;
+		double h0 = hours[before];
+		double h1 = hours[after];
+		double span = h1 - h0;
+		double offset = hour - h0;
+		if (span <= 0)
+			span += 24;
+		if (offset < 0)
+			offset += 24;
+		return factors[before] + (factors[after] - factors[before]) * offset / span;
+	}
+
+	/**
+	 * The time of arrival at the end of a road entered at a given time.
+	 * The speed along the road follows the profile as the time passes,
+	 * so the factor is integrated over the time spent on it, not taken
+	 * only at the start. Entering later therefore never means arriving
+	 * earlier.
+	 * @param profile The road's profile
+	 * @param time When the road is entered, in hours
+	 * @param travelTime The time the road takes at a factor of 1
+	 * @return The time of arrival, in hours.
+	 */
+	public double arrival(int profile, double time, double travelTime)
+	{
+		int from = start[profile];
+		int to = start[profile + 1];
+		if (to - from == 1)
+			return time + travelTime / factors[from];
+		// keep the day apart, so moving to the next breakpoint is exact
+		double day = Math.floor(time / 24) * 24;
+		double hour = time - day;
+		int i = from;
+		while (i < to && hours[i] <= hour)
+			i++;
+		int before = i == from ? to - 1 : i - 1;
+		double left = travelTime;
+		while (true)
+		{
+			// the factor is f + slope * t for the next len hours, up to breakpoint after
+			int after = before + 1 == to ? from : before + 1;
+			double span = hours[after] - hours[before];
+			double offset = hour - hours[before];
+			if (span <= 0)
+				span += 24;
+			if (offset < 0)
+				offset += 24;
+			double len = span - offset;
+			double slope = (factors[after] - factors[before]) / span;
+			double f = factors[before] + slope * offset;
+			// the free-flow time covered by the end of the piece
+			double covered = (f + factors[after]) / 2 * len;
+			if (left <= covered)
+			{
+				// solve f * t + slope * t * t / 2 = left, in a form that is stable when slope is 0
+				double t = 2 * left / (f + Math.sqrt(Math.max(0, f * f + 2 * slope * left)));
+				return day + hour + t;
+			}
+			left -= covered;
+			if (hours[after] < hour)
+				day += 24;
+			hour = hours[after];
+			before = after;
+		}
+	}
+
+	// Resolve the profile of every edge of a snapshot into one compact array.
+	short[] resolve(RoadNetwork net)
+	{
+		short[] profiles = new short[net.numEdges];
+		for (int e = 0; e < net.numEdges; e++)
+		{
+			Road road = net.roads[e];
+			if (road == null)
+				continue;
+			Integer p = null;
+			Map<GeographicPoint, Integer> fromRoads = roadProfiles.get(road.getFrom());
+			if (fromRoads != null)
+				p = fromRoads.get(road.getTo());
+			if (p == null)
+				p = typeProfiles.get(road.getRoadType());
+			profiles[e] = p == null ? 0 : (short) (int) p;
+		}
+		return profiles;
+	}
+
+	// A copy that later changes to this table do not affect.
+	SpeedProfiles copy()
+	{
+		SpeedProfiles copy = new SpeedProfiles();
+		copy.hours = hours;
+		copy.factors = factors;
+		copy.start = start;
+		copy.numProfiles = numProfiles;
+		copy.maxFactor = maxFactor;
+		copy.typeProfiles = new HashMap<String, Integer>(typeProfiles);
+		for (Map.Entry<GeographicPoint, Map<GeographicPoint, Integer>> entry : roadProfiles.entrySet())
+			copy.roadProfiles.put(entry.getKey(), new HashMap<GeographicPoint, Integer>(entry.getValue()));
+		return copy;
+	}
+
+	private void checkProfile(int profile)
+	{
+		if (profile < 0 || profile >= numProfiles)
+			throw new IllegalArgumentException("No speed profile " + profile);
+	}
+}
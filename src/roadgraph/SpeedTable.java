@@ -0,0 +1,217 @@
+package roadgraph;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The speed of each road type, used to turn road lengths into travel times.
+ *
+ * Tables are read from speed files (see speeds/default.speeds on the
+ * classpath for the format). Every road type listed gets a small integer id, and speeds are
+ * kept in a plain array indexed by that id, so a road resolves its type
+ * once and never looks it up by name again. Types that are not listed
+ * share id 0 and the table's default speed, so maps with new road types
+ * still load.
+ *
+ * A table is immutable once built; withOverrides returns a new table.
+ *
+ * @author Hao Zhang
+ */
+public class SpeedTable {
+	/** The classpath resource of the speed table used when no region is given. */
+	public static final String DEFAULT_RESOURCE = "/speeds/default.speeds";
+	/** Speed of unknown road types when a file does not set one. */
+	public static final double DEFAULT_SPEED = 25;
+
+	private static SpeedTable defaultTable;
+
+	// road type -> id; id 0 is every type the table does not list
+	private final Map<String, Integer> ids;
+	private final String[] types;
+	private final double[] speeds;
+	private final double maxSpeed;
+
+	private SpeedTable(Map<String, Integer> ids, String[] types, double[] speeds)
+	{
+		this.ids = ids;
+		this.types = types;
+		this.speeds = speeds;
+		double max = 0;
+		for (double s : speeds)
+			max = Math.max(max, s);
+		this.maxSpeed = max;
+	}
+
+	/**
+	 * Read a table from a speed file.
+	 * @throws IOException If the file cannot be read or has a malformed line.
+	 */
+	public static SpeedTable load(String filename) throws IOException
+	{
+		return empty().withOverrides(filename);
+	}
+
+	/**
+	 * Read the default table, then apply the overrides of a region from
+	 * the classpath resource speeds/region.speeds.
+	 * @throws IOException If there is no table for the region, or it
+	 *   cannot be read.
+	 */
+	public static SpeedTable forRegion(String region) throws IOException
+	{
+		String name = "/speeds/" + region + ".speeds";
+		try (InputStream in = SpeedTable.class.getResourceAsStream(name)) {
+			if (in == null)
+				throw new IOException("No speed table for region " + region + " on the classpath");
+			return getDefault().withOverrides(reader(in), name);
+		}
+	}
+
+	/**
+	 * @return The table read from the file named by the system property
+	 *   roadgraph.speeds, or if it is not set, from DEFAULT_RESOURCE.
+	 * @throws IllegalStateException If the table cannot be read. There is
+	 *   no fallback: timing every road at one speed would quietly change
+	 *   the cost of every route.
+	 */
+	public static synchronized SpeedTable getDefault()
+	{
+		if (defaultTable == null)
+		{
+			String filename = System.getProperty("roadgraph.speeds");
+			try {
+				if (filename != null)
+					defaultTable = load(filename);
+				else
+				{
+					try (InputStream in = SpeedTable.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+						if (in == null)
+							throw new IOException(DEFAULT_RESOURCE + " is not on the classpath");
+						defaultTable = empty().withOverrides(reader(in), DEFAULT_RESOURCE);
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot load the speed table: " + e.getMessage(), e);
+			}
+		}
+		return defaultTable;
+	}
+
+	private static BufferedReader reader(InputStream in)
+	{
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	private static SpeedTable empty()
+	{
+		return new SpeedTable(new HashMap<String, Integer>(), new String[] {null}, new double[] {DEFAULT_SPEED});
+	}
+
+	/**
+	 * Return a copy of this table with the entries of a speed file applied
+	 * on top. Types the file does not list keep their current speed.
+	 * @throws IOException If the file cannot be read or has a malformed line.
+	 */
+	public SpeedTable withOverrides(String filename) throws IOException
+	{
+		return withOverrides(new BufferedReader(new FileReader(filename)), filename);
+	}
+
+	// Apply the entries read from reader, which is closed afterwards; source
+	// names it in error messages.
+	private SpeedTable withOverrides(BufferedReader in, String source) throws IOException
+	{
+		Map<String, Integer> newIds = new HashMap<String, Integer>(ids);
+		String[] newTypes = types.clone();
+		double[] newSpeeds = speeds.clone();
+		try (BufferedReader reader = in) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null)
+			{
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\\s+");
+				double speed;
+				try {
+					speed = fields.length == 2 ? Double.parseDouble(fields[1]) : -1;
+				} catch (NumberFormatException e) {
+					speed = -1;
+				}
+				if (!(speed > 0))
+					throw new IOException(source + ":" + lineNumber + ": expected a road type and a positive speed");
+				int id = fields[0].equals("default") ? 0 : newIds.getOrDefault(fields[0], -1);
+				if (id < 0)
+				{
+					id = newTypes.length;
+					newIds.put(fields[0], id);
+					newTypes = Arrays.copyOf(newTypes, id + 1);
+					newSpeeds = Arrays.copyOf(newSpeeds, id + 1);
+					newTypes[id] = fields[0];
+				}
+				newSpeeds[id] = speed;
+			}
+		}
+		return new SpeedTable(newIds, newTypes, newSpeeds);
+	}
+
+	/**
+	 * @return The id of a road type, or 0 if the table does not list it.
+	 */
+	public int typeId(String roadType)
+	{
+		Integer id = ids.get(roadType);
+		return id == null ? 0 : id;
+	}
+
+	/**
+	 * @return The speed of the road type with the given id.
+	 */
+	public double getSpeed(int typeId)
+	{
+		return speeds[typeId];
+	}
+
+	/**
+	 * @return The speed of a road type, or the default speed if the table
+	 *   does not list it.
+	 */
+	public double getSpeed(String roadType)
+	{
+		return speeds[typeId(roadType)];
+	}
+
+	/**
+	 * @return The highest speed in the table, an upper bound on the speed
+	 *   of any road timed with it.
+	 */
+	public double getMaxSpeed()
+	{
+		return maxSpeed;
+	}
+
+	/**
+	 * @return The road type with the given id, or null for id 0.
+	 */
+	public String getRoadType(int typeId)
+	{
+		return types[typeId];
+	}
+
+	/**
+	 * @return The number of type ids, including id 0 for unlisted types.
+	 */
+	public int getNumTypes()
+	{
+		return types.length;
+	}
+}
@@ -0,0 +1,318 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+
+/**
+ * Plans the order in which to visit a list of stops, like a delivery
+ * round, and the route that visits them.
+ *
+ * First the travel time between every pair of stops is found, with one
+ * Dijkstra search per stop that ends as soon as all the other stops are
+ * settled. The visiting order is then a heuristic solution of the
+ * travelling salesman problem on that matrix: a randomized nearest
+ * neighbour tour improved with 2-opt, Or-opt and swap moves until none
+ * finds a shorter tour. Unreachable pairs are priced above any tour of
+ * reachable ones, so the moves can still work their way out of them.
+ * This is repeated from several random starts in parallel, and the best
+ * tour wins. Roads are one-way, so the matrix is not symmetric and every
+ * move is priced in both directions.
+ *
+ * @author Hao Zhang
+ */
+public class TourPlanner {
+	private static final double UNREACHABLE = Double.POSITIVE_INFINITY;
+
+	private final MapGraph graph;
+	private final int restarts;
+
+	/**
+	 * Create a planner that tries one start per available processor, and at least eight.
+	 */
+	public TourPlanner(MapGraph graph)
+	{
+		this(graph, Math.max(8, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * @param graph The graph to route on
+	 * @param restarts How many random starts to improve, at least 1.
+	 */
+	public TourPlanner(MapGraph graph, int restarts)
+	{
+		if (restarts < 1)
+			throw new IllegalArgumentException("Need at least one restart.");
+		this.graph = graph;
+		this.restarts = restarts;
+	}
+
+	/**
+	 * Find a fast order to visit the stops in. The first stop is where the
+	 * tour starts; the others may be visited in any order.
+	 * @param stops The intersections to visit
+	 * @param roundTrip Whether the tour ends back at the first stop
+	 * @return The stops in visiting order, or null if some stop cannot be
+	 *   reached from the others.
+	 */
+	public List<GeographicPoint> orderStops(List<GeographicPoint> stops, boolean roundTrip)
+	{
+		return orderStops(graph.network(), stops, roundTrip);
+	}
+
+	/**
+	 * Find a fast route that visits all the stops, starting at the first.
+	 * The order and every leg are found on the same snapshot of the graph,
+	 * so roads changed while planning do not mix into one route.
+	 * @param stops The intersections to visit
+	 * @param roundTrip Whether the route ends back at the first stop
+	 * @return The list of intersections that form the route, or null if
+	 *   some stop cannot be reached from the others.
+	 */
+	public List<GeographicPoint> planRoute(List<GeographicPoint> stops, boolean roundTrip)
+	{
+		RoadNetwork net = graph.network();
+		List<GeographicPoint> order = orderStops(net, stops, roundTrip);
+		if (order == null || order.isEmpty())
+			return order;
+		if (roundTrip)
+			order.add(order.get(0));
+		double[] weights = MapGraph.edgeWeights(net, Weighting.TIME);
+		double estimatePerKm = Weighting.TIME.minCostPerKm(graph.getSpeedTable().getMaxSpeed());
+		SearchState state = SearchState.forCurrentThread();
+		List<GeographicPoint> route = new ArrayList<GeographicPoint>();
+		route.add(order.get(0));
+		for (int i = 1; i < order.size(); i++)
+		{
+			int s = net.indexOf(order.get(i - 1));
+			int g = net.indexOf(order.get(i));
+			if (s < 0 || g < 0 || MapGraph.search(net, s, g, weights, estimatePerKm, state, x -> {}) < 0)
+				return null;
+			List<GeographicPoint> leg = MapGraph.buildPath(net, state, g);
+			route.addAll(leg.subList(1, leg.size()));
+		}
+		return route;
+	}
+
+	private List<GeographicPoint> orderStops(RoadNetwork net, List<GeographicPoint> stops, boolean roundTrip)
+	{
+		if (stops.size() <= 2)
+			return new ArrayList<GeographicPoint>(stops);
+		double[][] matrix = MapGraph.durationMatrix(net, stops);
+		double[][] priced = withPenalties(matrix);
+		int[] best = IntStream.range(0, restarts).parallel()
+				.mapToObj(r -> improve(nearestNeighbour(priced, new Random(r)), priced, roundTrip))
+				.min((a, b) -> Double.compare(tourCost(a, priced, roundTrip), tourCost(b, priced, roundTrip)))
+				.get();
+		if (tourCost(best, matrix, roundTrip) == UNREACHABLE)
+			return null;
+		List<GeographicPoint> order = new ArrayList<GeographicPoint>(stops.size());
+		for (int i : best)
+			order.add(stops.get(i));
+		return order;
+	}
+
+	// The matrix with every unreachable pair given a finite cost higher than
+	// any tour of reachable pairs. The moves below price a change by taking
+	// costs away, which is NaN with infinities, so a tour that starts with an
+	// unreachable leg could otherwise never be repaired.
+	static double[][] withPenalties(double[][] matrix)
+	{
+		double penalty = 1;
+		for (double[] row : matrix)
+		{
+			for (double cost : row)
+			{
+				if (cost != UNREACHABLE)
+					penalty += cost;
+			}
+		}
+		double[][] priced = new double[matrix.length][];
+		for (int i = 0; i < matrix.length; i++)
+		{
+			priced[i] = matrix[i].clone();
+			for (int j = 0; j < priced[i].length; j++)
+			{
+				if (priced[i][j] == UNREACHABLE)
+					priced[i][j] = penalty;
+			}
+		}
+		return priced;
+	}
+
+	// Nearest neighbour tour from stop 0, picking one of the two nearest
+	// unvisited stops at random so every restart starts somewhere different.
+	static int[] nearestNeighbour(double[][] matrix, Random random)
+	{
+		int n = matrix.length;
+		int[] tour = new int[n];
+		boolean[] visited = new boolean[n];
+		visited[0] = true;
+		for (int i = 1; i < n; i++)
+		{
+			int prev = tour[i - 1];
+			int first = -1;
+			int second = -1;
+			for (int j = 0; j < n; j++)
+			{
+				if (visited[j])
+					continue;
+				if (first < 0 || matrix[prev][j] < matrix[prev][first])
+				{
+					second = first;
+					first = j;
+				}
+				else if (second < 0 || matrix[prev][j] < matrix[prev][second])
+					second = j;
+			}
+			int next = second >= 0 && random.nextInt(3) == 0 ? second : first;
+			tour[i] = next;
+			visited[next] = true;
+		}
+		return tour;
+	}
+
+	// Apply improving 2-opt, Or-opt and swap moves until none finds one.
+	// tour[0] stays in place.
+	static int[] improve(int[] tour, double[][] matrix, boolean roundTrip)
+	{
+		while (twoOpt(tour, matrix, roundTrip) || orOpt(tour, matrix, roundTrip) || swap(tour, matrix, roundTrip))
+			;
+		return tour;
+	}
+
+	// Reverse the first segment tour[i..j] whose reversal makes the tour
+	// shorter. Returns whether one was found.
+	private static boolean twoOpt(int[] tour, double[][] matrix, boolean roundTrip)
+	{
+		int n = tour.length;
+		// forward[k] and backward[k]: cost of tour[0..k] driven forwards and backwards
+		double[] forward = new double[n];
+		double[] backward = new double[n];
+		for (int k = 1; k < n; k++)
+		{
+			forward[k] = forward[k - 1] + matrix[tour[k - 1]][tour[k]];
+			backward[k] = backward[k - 1] + matrix[tour[k]][tour[k - 1]];
+		}
+		for (int i = 1; i < n - 1; i++)
+		{
+			for (int j = i + 1; j < n; j++)
+			{
+				double before = matrix[tour[i - 1]][tour[i]] + forward[j] - forward[i];
+				double after = matrix[tour[i - 1]][tour[j]] + backward[j] - backward[i];
+				int next = j + 1 < n ? tour[j + 1] : roundTrip ? tour[0] : -1;
+				if (next >= 0)
+				{
+					before += matrix[tour[j]][next];
+					after += matrix[tour[i]][next];
+				}
+				if (after < before - 1e-12)
+				{
+					reverse(tour, i, j);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Move the first segment of one to three stops whose move to another
+	// place in the tour makes it shorter. Returns whether one was found.
+	private static boolean orOpt(int[] tour, double[][] matrix, boolean roundTrip)
+	{
+		int n = tour.length;
+		for (int length = 1; length <= 3; length++)
+		{
+			for (int i = 1; i + length <= n; i++)
+			{
+				int j = i + length - 1;
+				int prev = tour[i - 1];
+				int next = j + 1 < n ? tour[j + 1] : roundTrip ? tour[0] : -1;
+				double removed = matrix[prev][tour[i]] + (next >= 0 ? matrix[tour[j]][next] - matrix[prev][next] : 0);
+				// insert between tour[k] and tour[k + 1], outside the segment
+				for (int k = 0; k < n; k++)
+				{
+					if (k >= i - 1 && k <= j)
+						continue;
+					int after = k + 1 < n ? tour[k + 1] : roundTrip ? tour[0] : -1;
+					double added = matrix[tour[k]][tour[i]] + (after >= 0 ? matrix[tour[j]][after] - matrix[tour[k]][after] : 0);
+					if (added < removed - 1e-12)
+					{
+						move(tour, i, j, k);
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	// Exchange the first two stops tour[i] and tour[j], not next to each
+	// other, whose exchange makes the tour shorter. This can get a stop out
+	// of an unreachable leg when moving either one alone would not help.
+	// Returns whether one was found.
+	private static boolean swap(int[] tour, double[][] matrix, boolean roundTrip)
+	{
+		int n = tour.length;
+		for (int i = 1; i < n - 2; i++)
+		{
+			for (int j = i + 2; j < n; j++)
+			{
+				int next = j + 1 < n ? tour[j + 1] : roundTrip ? tour[0] : -1;
+				double before = matrix[tour[i - 1]][tour[i]] + matrix[tour[i]][tour[i + 1]]
+						+ matrix[tour[j - 1]][tour[j]] + (next >= 0 ? matrix[tour[j]][next] : 0);
+				double after = matrix[tour[i - 1]][tour[j]] + matrix[tour[j]][tour[i + 1]]
+						+ matrix[tour[j - 1]][tour[i]] + (next >= 0 ? matrix[tour[i]][next] : 0);
+				if (after < before - 1e-12)
+				{
+					int t = tour[i];
+					tour[i] = tour[j];
+					tour[j] = t;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void reverse(int[] tour, int i, int j)
+	{
+		for (; i < j; i++, j--)
+		{
+			int t = tour[i];
+			tour[i] = tour[j];
+			tour[j] = t;
+		}
+	}
+
+	// Move tour[i..j] to just after tour[k].
+	private static void move(int[] tour, int i, int j, int k)
+	{
+		int[] segment = Arrays.copyOfRange(tour, i, j + 1);
+		int length = segment.length;
+		if (k > j)
+		{
+			System.arraycopy(tour, j + 1, tour, i, k - j);
+			System.arraycopy(segment, 0, tour, k - length + 1, length);
+		}
+		else
+		{
+			System.arraycopy(tour, k + 1, tour, k + 1 + length, i - k - 1);
+			System.arraycopy(segment, 0, tour, k + 1, length);
+		}
+	}
+
+	static double tourCost(int[] tour, double[][] matrix, boolean roundTrip)
+	{
+		double cost = 0;
+		for (int k = 1; k < tour.length; k++)
+			cost += matrix[tour[k - 1]][tour[k]];
+		if (roundTrip)
+			cost += matrix[tour[tour.length - 1]][tour[0]];
+		return cost;
+	}
+}
@@ -0,0 +1,173 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import geography.GeographicPoint;
+import util.LongLongHashMap;
+
+/**
+ * Costs of turning from one road onto the next, for edge-based routing.
+ *
+ * By default the cost of a turn depends only on its angle, measured
+ * between the direction a road arrives at an intersection and the
+ * direction the next road leaves it (taken from the road geometry, so a
+ * curved road is judged by its last and first few metres). Going straight
+ * is free; left turns, right turns and U-turns each have their own cost,
+ * in hours like the travel times. A cost of infinity forbids the turn.
+ *
+ * On top of that, single turns can be given their own cost or forbidden
+ * outright, e.g. for "no left turn" signs. These are stored by location
+ * and resolved into edge ids once per graph snapshot, in a hash table
+ * keyed by the pair of edges, so the search never looks up points.
+ *
+ * @author Hao Zhang
+ */
+public class TurnCosts {
+	// turns within this many degrees of straight ahead are free
+	private static final double STRAIGHT_ANGLE = 30;
+	// turns sharper than this are U-turns
+	private static final double U_TURN_ANGLE = 150;
+
+	private double leftTurnCost;
+	private double rightTurnCost;
+	private double uTurnCost;
+
+	// turns with a cost of their own: from -> via -> to
+	private List<GeographicPoint[]> turns = new ArrayList<GeographicPoint[]>();
+	private List<Double> turnCosts = new ArrayList<Double>();
+
+	/**
+	 * Create turn costs for right-hand traffic with typical delays: 15
+	 * seconds for a left turn, 5 for a right turn and 30 for a U-turn.
+	 */
+	public TurnCosts()
+	{
+		this(15 / 3600.0, 5 / 3600.0, 30 / 3600.0);
+	}
+
+	/**
+	 * Create turn costs from the cost of each kind of turn, in hours.
+	 * For left-hand traffic, swap the left and right turn costs.
+	 */
+	public TurnCosts(double leftTurnCost, double rightTurnCost, double uTurnCost)
+	{
+		if (leftTurnCost < 0 || rightTurnCost < 0 || uTurnCost < 0)
+			throw new IllegalArgumentException("Turn costs cannot be negative.");
+		this.leftTurnCost = leftTurnCost;
+		this.rightTurnCost = rightTurnCost;
+		this.uTurnCost = uTurnCost;
+	}
+
+	/**
+	 * Give the turn from the road from -> via onto the road via -> to its
+	 * own cost, in hours, replacing the cost of its angle.
+	 */
+	public void setTurnCost(GeographicPoint from, GeographicPoint via, GeographicPoint to, double cost)
+	{
+		if (cost < 0)
+			throw new IllegalArgumentException("Turn costs cannot be negative.");
+		turns.add(new GeographicPoint[] {from, via, to});
+		turnCosts.add(cost);
+	}
+
+	/**
+	 * Forbid the turn from the road from -> via onto the road via -> to.
+	 */
+	public void forbidTurn(GeographicPoint from, GeographicPoint via, GeographicPoint to)
+	{
+		setTurnCost(from, via, to, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return The cost of a turn of the given angle, in degrees clockwise
+	 *   from straight ahead (negative for a left turn).
+	 */
+	public double costOfAngle(double angle)
+	{
+		double sharpness = Math.abs(angle);
+		if (sharpness <= STRAIGHT_ANGLE)
+			return 0;
+		if (sharpness >= U_TURN_ANGLE)
+			return uTurnCost;
+		return angle < 0 ? leftTurnCost : rightTurnCost;
+	}
+
+	// A copy that later changes to this table do not affect.
+	TurnCosts copy()
+	{
+		TurnCosts copy = new TurnCosts(leftTurnCost, rightTurnCost, uTurnCost);
+		copy.turns = new ArrayList<GeographicPoint[]>(turns);
+		copy.turnCosts = new ArrayList<Double>(turnCosts);
+		return copy;
+	}
+
+	// Resolve the table against a snapshot.
+	Resolved resolve(RoadNetwork net)
+	{
+		return new Resolved(net);
+	}
+
+	/**
+	 * The turn costs of one graph snapshot, with every edge's headings in
+	 * flat arrays and the single-turn table keyed by edge ids.
+	 */
+	final class Resolved {
+		private final float[] startHeadings;
+		private final float[] endHeadings;
+		// (incoming edge << 32 | outgoing edge) -> raw bits of the cost
+		private final LongLongHashMap overrides;
+
+		private Resolved(RoadNetwork net)
+		{
+			startHeadings = new float[net.numEdges];
+			endHeadings = new float[net.numEdges];
+			for (int e = 0; e < net.numEdges; e++)
+			{
+				if (net.roads[e] != null)
+				{
+					startHeadings[e] = net.roads[e].getStartHeading();
+					endHeadings[e] = net.roads[e].getEndHeading();
+				}
+			}
+			overrides = new LongLongHashMap(turns.size());
+			for (int i = 0; i < turns.size(); i++)
+			{
+				GeographicPoint[] turn = turns.get(i);
+				int from = net.indexOf(turn[0]);
+				int via = net.indexOf(turn[1]);
+				int to = net.indexOf(turn[2]);
+				int in = from < 0 || via < 0 ? -1 : net.findEdge(from, via);
+				int out = via < 0 || to < 0 ? -1 : net.findEdge(via, to);
+				// turns onto roads that are not in this snapshot cannot be taken anyway
+				if (in >= 0 && out >= 0)
+					overrides.put(key(in, out), Double.doubleToRawLongBits(turnCosts.get(i)));
+			}
+		}
+
+		/**
+		 * @return The cost of turning from edge in onto edge out, which
+		 *   starts where in ends; infinity if the turn is forbidden.
+		 */
+		double cost(int in, int out)
+		{
+			if (overrides.size() > 0)
+			{
+				long bits = overrides.get(key(in, out), -1);
+				if (bits != -1)
+					return Double.longBitsToDouble(bits);
+			}
+			double angle = startHeadings[out] - endHeadings[in];
+			if (angle > 180)
+				angle -= 360;
+			else if (angle <= -180)
+				angle += 360;
+			return costOfAngle(angle);
+		}
+
+		private long key(int in, int out)
+		{
+			return (long) in << 32 | out;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package roadgraph;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cost model for route searches: what it costs to drive along a road.
+ *
+ * MapGraph turns a weighting into one array of costs per edge the first
+ * time it is used on a graph snapshot, so a search only reads that array
+ * and never calls back into the weighting per edge. Switching between
+ * weightings therefore needs no reload. DISTANCE and TIME are always
+ * cached. The arrays of other weightings are kept for the few used most
+ * recently, found by equals, so implementations that are created
+ * repeatedly, like those of truck() and avoidMotorways(), should
+ * implement equals and hashCode to share them.
+ *
+ * @author Hao Zhang
+ */
+public interface Weighting {
+
+	/** Shortest distance, in km. */
+	Weighting DISTANCE = new Weighting() {
+		public double weight(Road road, double time) { return road.getLength(); }
+		public double minCostPerKm(double maxSpeed) { return 1; }
+	};
+
+	/** Shortest travel time, including current traffic. */
+	Weighting TIME = new Weighting() {
+		public double weight(Road road, double time) { return time; }
+		public double minCostPerKm(double maxSpeed) { return 1 / maxSpeed; }
+	};
+
+	/**
+	 * Cost of driving along road.
+	 * @param road The road
+	 * @param time Its current travel time, including traffic
+	 * @return The cost, which must not be negative.
+	 */
+	double weight(Road road, double time);
+
+	/**
+	 * @param maxSpeed The highest speed of any road in the graph.
+	 * @return A lower bound on the cost of any road per km of its length,
+	 *   used by A* to estimate the remaining cost to the goal.
+	 */
+	double minCostPerKm(double maxSpeed);
+
+	/**
+	 * Travel time, with each road type's time multiplied by the given
+	 * factor. Road types without a factor keep their normal time.
+	 * @param multipliers Factor per road type, each at least 1.
+	 */
+	static Weighting byRoadType(Map<String, Double> multipliers)
+	{
+		return new RoadTypeWeighting(multipliers);
+	}
+
+	/** Fastest route that stays off motorways unless there is no reasonable alternative. */
+	static Weighting avoidMotorways()
+	{
+		Map<String, Double> multipliers = new HashMap<String, Double>();
+		multipliers.put("motorway", 10.0);
+		multipliers.put("motorway_link", 10.0);
+		return byRoadType(multipliers);
+	}
+
+	/** Fastest route for a truck: slower on fast roads, and keeps off small streets. */
+	static Weighting truck()
+	{
+		Map<String, Double> multipliers = new HashMap<String, Double>();
+		multipliers.put("motorway", 65.0 / 55);
+		multipliers.put("motorway_link", 65.0 / 55);
+		multipliers.put("trunk", 45.0 / 40);
+		multipliers.put("trunk_link", 45.0 / 40);
+		multipliers.put("residential", 3.0);
+		multipliers.put("unclassified", 2.0);
+		multipliers.put("living_street", 5.0);
+		return byRoadType(multipliers);
+	}
+}
+
+// Travel time scaled by a factor per road type.
+class RoadTypeWeighting implements Weighting {
+	private final Map<String, Double> multipliers;
+
+	RoadTypeWeighting(Map<String, Double> multipliers)
+	{
+		for (double m : multipliers.values())
+		{
+			if (m < 1)
+				throw new IllegalArgumentException("Road type multipliers must be at least 1.");
+		}
+		this.multipliers = new HashMap<String, Double>(multipliers);
+	}
+
+	public double weight(Road road, double time)
+	{
+		Double m = multipliers.get(road.getRoadType());
+		return m == null ? time : time * m;
+	}
+
+	public double minCostPerKm(double maxSpeed)
+	{
+		return Weighting.TIME.minCostPerKm(maxSpeed);
+	}
+
+	public boolean equals(Object o)
+	{
+		return o instanceof RoadTypeWeighting && ((RoadTypeWeighting) o).multipliers.equals(multipliers);
+	}
+
+	public int hashCode()
+	{
+		return multipliers.hashCode();
+	}
+}
@@ -0,0 +1,400 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import geography.GeographicPoint;
+import roadgraph.MapGraph;
+import roadgraph.Road;
+import roadgraph.Weighting;
+import util.GraphLoader;
+
+/**
+ * A headless routing server: loads .map files into MapGraphs and answers
+ * routing queries over HTTP with JSON, without any of the JavaFX classes.
+ *
+ * Endpoints (GET with a query string, or POST with a form-encoded body):
+ *   /maps                          names of the loaded maps
+ *   /route?from=lat,lon&to=lat,lon  route between two locations; optional
+ *                                   algorithm (astar, dijkstra, bfs) and
+ *                                   weighting (time, distance, truck,
+ *                                   avoidMotorways)
+ *   /snap?at=lat,lon                nearest intersection to a location
+ *   /matrix?points=lat,lon;lat,lon  travel time between every pair of points
+ *   /isochrone?from=lat,lon&time=t  intersections reachable within t hours
+ * Every endpoint takes an optional map=name, the file name of the map
+ * without its extension; the first map loaded is the default. Locations
+ * are snapped to the nearest intersection. Times are in hours, lengths in km.
+ *
+ * Requests are handled on a fixed pool of threads. Searches on a MapGraph
+ * never block each other, so one pool thread per core is enough.
+ *
+ * Usage: java server.RoutingServer port mapfile [mapfile ...]
+ *
+ * @author Hao Zhang
+ */
+public class RoutingServer {
+	private final Map<String, MapGraph> graphs = new LinkedHashMap<String, MapGraph>();
+	private final HttpServer server;
+	private final ExecutorService executor;
+	// looking up the JSON provider is slow, so it is done once, here
+	private final JsonGeneratorFactory jsonFactory = Json.createGeneratorFactory(null);
+
+	/**
+	 * Create a server on a port, answering requests on threads worker threads.
+	 * It does not accept connections until start is called.
+	 */
+	public RoutingServer(int port, int threads) throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/maps", handler(this::maps));
+		server.createContext("/route", handler(this::route));
+		server.createContext("/snap", handler(this::snap));
+		server.createContext("/matrix", handler(this::matrix));
+		server.createContext("/isochrone", handler(this::isochrone));
+	}
+
+	/**
+	 * Serve a graph under a name. Maps should be added before start.
+	 */
+	public synchronized void addMap(String name, MapGraph graph)
+	{
+		graph.setVerbose(false);
+		graphs.put(name, graph);
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	/**
+	 * Stop accepting requests, wait up to delay seconds for open ones, and
+	 * stop the worker threads.
+	 */
+	public void stop(int delay)
+	{
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	// The parameters of one request, and the response being written.
+	private static class Request {
+		final Map<String, String> params;
+		final JsonGenerator json;
+		int status = 200;
+
+		Request(Map<String, String> params, JsonGenerator json)
+		{
+			this.params = params;
+			this.json = json;
+		}
+
+		String get(String name)
+		{
+			String value = params.get(name);
+			if (value == null)
+				throw new IllegalArgumentException("Missing parameter " + name);
+			return value;
+		}
+
+		String get(String name, String defaultValue)
+		{
+			return params.getOrDefault(name, defaultValue);
+		}
+	}
+
+	// Wrap an endpoint so it reads parameters, writes one JSON object and
+	// turns bad parameters into a 400 response.
+	private HttpHandler handler(Consumer<Request> endpoint)
+	{
+		return exchange -> {
+			try {
+				String method = exchange.getRequestMethod();
+				if (!method.equals("GET") && !method.equals("POST"))
+				{
+					send(exchange, 405, "{\"error\":\"Use GET or POST\"}");
+					return;
+				}
+				Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+				if (method.equals("POST"))
+					params.putAll(parse(readBody(exchange.getRequestBody())));
+				StringWriter out = new StringWriter();
+				Request request = new Request(params, jsonFactory.createGenerator(out));
+				try {
+					request.json.writeStartObject();
+					endpoint.accept(request);
+					request.json.writeEnd().close();
+				} catch (IllegalArgumentException e) {
+					out = new StringWriter();
+					jsonFactory.createGenerator(out).writeStartObject().write("error", String.valueOf(e.getMessage())).writeEnd().close();
+					request.status = 400;
+				}
+				send(exchange, request.status, out.toString());
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				send(exchange, 500, "{\"error\":\"Internal error\"}");
+			} finally {
+				exchange.close();
+			}
+		};
+	}
+
+	private void maps(Request request)
+	{
+		request.json.writeStartArray("maps");
+		synchronized (this)
+		{
+			for (String name : graphs.keySet())
+				request.json.write(name);
+		}
+		request.json.writeEnd();
+	}
+
+	private void route(Request request)
+	{
+		MapGraph graph = graph(request);
+		GeographicPoint from = snap(graph, point(request.get("from")));
+		GeographicPoint to = snap(graph, point(request.get("to")));
+		String algorithm = request.get("algorithm", "astar");
+		Weighting weighting = weighting(request.get("weighting", "time"));
+		List<GeographicPoint> path;
+		switch (algorithm)
+		{
+		case "astar":
+			path = graph.aStarSearch(from, to, weighting, x -> {});
+			break;
+		case "dijkstra":
+			path = graph.dijkstra(from, to, weighting, x -> {});
+			break;
+		case "bfs":
+			path = graph.bfs(from, to);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+		}
+		if (path == null)
+		{
+			request.status = 404;
+			request.json.write("error", "No path found");
+			return;
+		}
+		// the path was found on one snapshot of the graph; if a road on it
+		// has been removed since, the client should ask again
+		double time = graph.getTravelTime(path);
+		double length = 0;
+		for (int i = 1; i < path.size() && !Double.isInfinite(time); i++)
+		{
+			Road road = graph.getRoad(path.get(i - 1), path.get(i));
+			if (road == null)
+				time = Double.POSITIVE_INFINITY;
+			else
+				length += road.getLength();
+		}
+		if (Double.isInfinite(time))
+		{
+			request.status = 409;
+			request.json.write("error", "The map changed while routing; try again");
+			return;
+		}
+		request.json.write("time", time);
+		request.json.write("length", length);
+		writePoints(request.json, "path", path);
+	}
+
+	private void snap(Request request)
+	{
+		MapGraph graph = graph(request);
+		GeographicPoint at = point(request.get("at"));
+		GeographicPoint nearest = snap(graph, at);
+		request.json.writeStartArray("point").write(nearest.getX()).write(nearest.getY()).writeEnd();
+		request.json.write("distance", nearest.distance(at));
+	}
+
+	private void matrix(Request request)
+	{
+		MapGraph graph = graph(request);
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		for (String point : request.get("points").split(";"))
+			points.add(snap(graph, point(point)));
+		double[][] matrix = graph.durationMatrix(points);
+		writePoints(request.json, "points", points);
+		request.json.writeStartArray("times");
+		for (double[] row : matrix)
+		{
+			request.json.writeStartArray();
+			for (double time : row)
+			{
+				// JSON has no infinity; unreachable pairs are null
+				if (Double.isInfinite(time))
+					request.json.writeNull();
+				else
+					request.json.write(time);
+			}
+			request.json.writeEnd();
+		}
+		request.json.writeEnd();
+	}
+
+	private void isochrone(Request request)
+	{
+		MapGraph graph = graph(request);
+		GeographicPoint from = snap(graph, point(request.get("from")));
+		double time = number(request.get("time"));
+		request.json.writeStartArray("reached");
+		for (Map.Entry<GeographicPoint, Double> entry : graph.reachableWithin(from, time).entrySet())
+		{
+			request.json.writeStartArray()
+					.write(entry.getKey().getX()).write(entry.getKey().getY()).write(entry.getValue())
+					.writeEnd();
+		}
+		request.json.writeEnd();
+	}
+
+	private synchronized MapGraph graph(Request request)
+	{
+		if (graphs.isEmpty())
+			throw new IllegalArgumentException("No maps loaded");
+		String name = request.get("map", graphs.keySet().iterator().next());
+		MapGraph graph = graphs.get(name);
+		if (graph == null)
+			throw new IllegalArgumentException("Unknown map " + name);
+		return graph;
+	}
+
+	private static GeographicPoint snap(MapGraph graph, GeographicPoint point)
+	{
+		GeographicPoint nearest = graph.nearestVertex(point);
+		if (nearest == null)
+			throw new IllegalArgumentException("Map has no intersections");
+		return nearest;
+	}
+
+	private static Weighting weighting(String name)
+	{
+		switch (name)
+		{
+		case "time":
+			return Weighting.TIME;
+		case "distance":
+			return Weighting.DISTANCE;
+		case "truck":
+			return Weighting.truck();
+		case "avoidMotorways":
+			return Weighting.avoidMotorways();
+		default:
+			throw new IllegalArgumentException("Unknown weighting " + name);
+		}
+	}
+
+	private static GeographicPoint point(String text)
+	{
+		String[] latLon = text.split(",");
+		if (latLon.length != 2)
+			throw new IllegalArgumentException("Expected lat,lon but got " + text);
+		return new GeographicPoint(number(latLon[0]), number(latLon[1]));
+	}
+
+	private static double number(String text)
+	{
+		try {
+			return Double.parseDouble(text.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + text);
+		}
+	}
+
+	private static void writePoints(JsonGenerator json, String name, List<GeographicPoint> points)
+	{
+		json.writeStartArray(name);
+		for (GeographicPoint p : points)
+			json.writeStartArray().write(p.getX()).write(p.getY()).writeEnd();
+		json.writeEnd();
+	}
+
+	// Parse a query string or form body: name=value pairs joined by &.
+	private static Map<String, String> parse(String query)
+	{
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null || query.isEmpty())
+			return params;
+		try {
+			for (String pair : query.split("&"))
+			{
+				int eq = pair.indexOf('=');
+				if (eq > 0)
+					params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return params;
+	}
+
+	private static String readBody(InputStream in) throws IOException
+	{
+		StringBuilder body = new StringBuilder();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			body.append(new String(buf, 0, n, StandardCharsets.UTF_8));
+		return body.toString();
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: java server.RoutingServer port mapfile [mapfile ...]");
+			return;
+		}
+		int port = Integer.parseInt(args[0]);
+		RoutingServer server = new RoutingServer(port, Runtime.getRuntime().availableProcessors());
+		for (int i = 1; i < args.length; i++)
+		{
+			String name = new File(args[i]).getName().replaceFirst("\\.[^.]*$", "");
+			System.out.print("Loading " + args[i] + "...");
+			MapGraph graph = new MapGraph();
+			GraphLoader.loadRoadMap(args[i], graph);
+			server.addMap(name, graph);
+			System.out.println("DONE.");
+		}
+		server.start();
+		System.out.println("Routing server listening on port " + port);
+	}
+}
@@ -9,21 +9,23 @@ package util;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import basicgraph.Graph;
 import geography.GeographicPoint;
+import geography.GeometryStore;
 import geography.RoadSegment;
 import roadgraph.MapGraph;
+import roadgraph.SpeedTable;
 
 
 public class GraphLoader 
@@ -41,43 +43,26 @@ public class GraphLoader
 	 * 
 	 * @param roadDataFile The file containing the road data, in the format 
 	 *   described.
+	 * The intersections file has one line per edge, in the format
+	 * described in IntersectionsFile:
+	 * lat1 lon1 lat2 lon2
+	 * 
 	 * @param intersectionsFile The output file containing the intersections.
 	 */
 	public static void createIntersectionsFile(String roadDataFile, String intersectionsFile)
 	{
-		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(roadDataFile);
-		
-        // Print the intersections to the file
-		List<GeographicPoint> intersections = findIntersections(pointMap);
-		for (GeographicPoint pt : intersections) {
-			nodes.add(pt);
-		}
+		PointTable table = buildPointTable(roadDataFile);
+		BitSet intersections = findIntersections(table);
+		EdgeTraces traces = traceEdges(table, intersections);
 
-		try {
-			PrintWriter writer = new PrintWriter(intersectionsFile, "UTF-8");
-
-			// Now we need to add the edges
-			// This is the tricky part
-			for (GeographicPoint pt : nodes) {
-				// Trace the node to its next node, building up the points 
-				// on the edge as you go.
-				List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-				LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
-				for (RoadLineInfo info : outgoing) {
-					HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
-					used.add(pt);
-				
-					List<GeographicPoint> pointsOnEdge = 
-							findPointsOnEdge(pointMap, info, nodes);
-					GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
-					writer.println(pt + " " + end);
+		try (IntersectionsFile.Writer writer = new IntersectionsFile.Writer(intersectionsFile)) {
+			// Write the intersections at both ends of every edge
+			for (int pt = intersections.nextSetBit(0); pt >= 0; pt = intersections.nextSetBit(pt + 1)) {
+				for (int i = table.outStart[pt]; i < table.outStart[pt + 1]; i++) {
+					int end = traces.end(table.outLines[i]);
+					writer.write(table.points[pt], table.points[end]);
 				}
-				
 			}
-			writer.flush();
-			writer.close();
 		}
 		catch (Exception e) {
 			System.out.println("Exception opening intersections file " + e);
@@ -134,22 +119,74 @@ public class GraphLoader
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
 			Set<GeographicPoint> intersectionsToLoad)
 	{
-		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
+		loadRoadMap(filename, map, segments, intersectionsToLoad, 0);
+	}
+
+	/**
+	 * Read in a file specifying a map, as above, and then drop small
+	 * islands: every intersection whose strongly connected component has
+	 * fewer than minComponentSize intersections is removed from the graph,
+	 * and from segments and intersectionsToLoad if they are given.
+	 * The components are computed here either way, so the first search
+	 * does not pay for them.
+	 * 
+	 * @param minComponentSize The smallest component to keep; 0 or 1 keeps all.
+	 */
+	public static void loadRoadMap(String filename, roadgraph.MapGraph map,  
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			Set<GeographicPoint> intersectionsToLoad, int minComponentSize)
+	{
+		loadRoadMap(filename, map, segments, intersectionsToLoad, minComponentSize, false);
+	}
+
+	/**
+	 * Read in a file specifying a map and drop small islands, as above,
+	 * and then, if contractChains is set, simplify the graph with
+	 * MapGraph.contractChains: intersections that only continue a road
+	 * are removed and their roads joined, so searches visit fewer
+	 * vertices. Segments and intersectionsToLoad, if given, are kept in
+	 * line with the simplified graph: each joined road gets one segment
+	 * with the merged geometry, and the removed intersections are dropped
+	 * along with their segments.
+	 * 
+	 * @param contractChains Whether to contract chains of roads.
+	 */
+	public static void loadRoadMap(String filename, roadgraph.MapGraph map,  
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			Set<GeographicPoint> intersectionsToLoad, int minComponentSize, boolean contractChains)
+	{
+		PointTable table = buildPointTable(filename);
 		
         // Add the nodes to the graph
-		List<GeographicPoint> intersections = findIntersections(pointMap);
-		for (GeographicPoint pt : intersections) {
+		BitSet intersections = findIntersections(table);
+		for (int i = intersections.nextSetBit(0); i >= 0; i = intersections.nextSetBit(i + 1)) {
+			GeographicPoint pt = table.points[i];
 			map.addVertex(pt);
 			if (intersectionsToLoad != null) {
 				intersectionsToLoad.add(pt);
 			}
-			nodes.add(pt);
 		}
 		
 		
-		addEdgesAndSegments(nodes, pointMap, map, segments);
+		addEdgesAndSegments(table, intersections, map, segments);
+
+		Set<GeographicPoint> removed = map.removeSmallComponents(minComponentSize);
+		if (intersectionsToLoad != null) {
+			intersectionsToLoad.removeAll(removed);
+		}
+		if (segments != null && !removed.isEmpty()) {
+			segments.keySet().removeAll(removed);
+			for (GeographicPoint pt : segments.keySet()) {
+				segments.get(pt).removeIf(seg -> removed.contains(seg.getOtherPoint(pt)));
+			}
+		}
+		if (contractChains) {
+			Set<GeographicPoint> contracted = map.contractChains(segments);
+			if (intersectionsToLoad != null) {
+				intersectionsToLoad.removeAll(contracted);
+			}
+		}
+		map.getNumComponents();
 	}
 
 	
@@ -173,42 +210,51 @@ public class GraphLoader
 	 */
 	public static void loadRoadMap(String filename, basicgraph.Graph theGraph)
 	{
-		HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
-		
-		HashMap<Integer,GeographicPoint> vertexMap = 
-				new HashMap<Integer,GeographicPoint>();
-		HashMap<GeographicPoint,Integer> reverseMap = 
-				new HashMap<GeographicPoint,Integer>();
+		PointTable table = buildPointTable(filename);
 		
-        // Add the nodes to the graph
-		List<GeographicPoint> intersections = findIntersections(pointMap);
-		
-		int index = 0;
-		for (GeographicPoint pt : intersections) {
-			theGraph.addVertex();
-			vertexMap.put(index, pt);
-			reverseMap.put(pt, index);
-			index++;
+        // Add the nodes to the graph, numbered in the order they
+		// appear in the file
+		BitSet intersections = findIntersections(table);
+		int[] vertexNum = new int[table.getNumPoints()];
+		for (int pt = intersections.nextSetBit(0); pt >= 0; pt = intersections.nextSetBit(pt + 1)) {
+			vertexNum[pt] = theGraph.addVertex();
 		}
 		
 		// Now add the edges
-		Collection<Integer> nodes = vertexMap.keySet();
-		for (Integer nodeNum : nodes) {
-			// Trace the node to its next node, building up the points 
-			// on the edge as you go.
-			GeographicPoint pt = vertexMap.get(nodeNum);
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-			List<RoadLineInfo> infoList = inAndOut.get(0);
-			for (RoadLineInfo info : infoList) {
-				GeographicPoint end = findEndOfEdge(pointMap, info, theGraph, 
-						reverseMap);
-				Integer endNum = reverseMap.get(end);
-				theGraph.addEdge(nodeNum, endNum);
+		EdgeTraces traces = traceEdges(table, intersections);
+		for (int pt = intersections.nextSetBit(0); pt >= 0; pt = intersections.nextSetBit(pt + 1)) {
+			for (int i = table.outStart[pt]; i < table.outStart[pt + 1]; i++) {
+				int end = traces.end(table.outLines[i]);
+				theGraph.addEdge(vertexNum[pt], vertexNum[end]);
 			}
 		}
 	}
 	
+	/**
+	 * Read in an intersections file, as written by createIntersectionsFile
+	 * or in the older "Lat: lat1, Lon: lon1 Lat: lat2, Lon: lon2" format.
+	 * Each intersection becomes a vertex, numbered in the order they 
+	 * first appear in the file, and each line an edge.
+	 * 
+	 * @param filename The intersections file
+	 * @param theGraph The graph to load the intersections into.  The
+	 *   graph is assumed to be directed.
+	 */
+	public static void loadIntersectionsFile(String filename, basicgraph.Graph theGraph)
+	{
+		HashMap<GeographicPoint,Integer> vertexNum = new HashMap<GeographicPoint,Integer>();
+		try {
+			IntersectionsFile.read(filename, (lat1, lon1, lat2, lon2) -> {
+				int from = vertexNum.computeIfAbsent(new GeographicPoint(lat1, lon1), pt -> theGraph.addVertex());
+				int to = vertexNum.computeIfAbsent(new GeographicPoint(lat2, lon2), pt -> theGraph.addVertex());
+				theGraph.addEdge(from, to);
+			});
+		} catch (IOException e) {
+			System.err.println("Problem loading intersections file: " + filename);
+			e.printStackTrace();
+		}
+	}
+	
 	/** Read in a file specifying route maps between airports.
 	 * The file contains data as follows:
 	 * Airline, AirlineID, Source airport, Source airport ID,
@@ -216,53 +262,15 @@ public class GraphLoader
 	 * This method will only read in nonstop routes (with Stops == 0)
 	 * Vertices are airports (labeled with Strings)
 	 * Edges represent nonstop routes
+	 * The file is parsed by RoutesFile, which can also filter
+	 * routes by airline or aircraft.
 	 * @param filename
 	 * @param graph
 	 */
 	public static void loadRoutes(String filename, Graph graph)
 	{
-		String source;
-		String destination;
-		int sourceIndex;
-		int destinationIndex;
-		
-		int lineCount = 0; //for debugging
-		
-		//Initialize vertex label HashMap in graph
-		graph.initializeLabels();
-		
-		//Read in flights from file
-		BufferedReader reader = null;
 		try {
-            String nextLine;
-            reader = new BufferedReader(new FileReader(filename));
-            while ((nextLine = reader.readLine()) != null) {
-            	String[] flightInfo = nextLine.split(",");
-//           	//Only count nonstop flights
-//            	if (Integer.parseInt(flightInfo[7])==0) {
-            		source = flightInfo[2];
-            		destination = flightInfo[4];
-            		//Add edge for this flight, if both source & destination are already vertices.
-            		//If one of these airports is missing, add vertex for it and then place edge.
-            		if (!graph.hasVertex(source)) {
-            			sourceIndex = graph.addVertex();
-            			graph.addLabel(sourceIndex, source);
-            		}
-            		else {
-            			sourceIndex = graph.getIndex(source);
-            		}
-            		if (!graph.hasVertex(destination)) {
-            			destinationIndex = graph.addVertex();
-            			graph.addLabel(destinationIndex, destination);
-            		}
-            		else {
-            			destinationIndex = graph.getIndex(destination);
-            		}
-            		graph.addEdge(sourceIndex, destinationIndex);
-            	}
-            	lineCount ++;
-//           }
-    		reader.close();
+			new RoutesFile().nonstop().load(filename, graph);
 		} catch (IOException e) {
             System.err.println("Problem loading route file: " + filename);
             e.printStackTrace();
@@ -319,31 +327,32 @@ public class GraphLoader
 	
 
 	
-	// Once you have built the pointMap and added the Nodes, 
+	// Once you have built the point table and added the Nodes, 
 	// add the edges and build the road segments if the segments
 	// map is not null.
-	private static void addEdgesAndSegments(Collection<GeographicPoint> nodes, 
-			HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
+	private static void addEdgesAndSegments(PointTable table, BitSet intersections,
 			MapGraph map, 
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
 	{
-	
-		// Now we need to add the edges
-		// This is the tricky part
-		for (GeographicPoint pt : nodes) {
-			// Trace the node to its next node, building up the points 
-			// on the edge as you go.
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
-			for (RoadLineInfo info : outgoing) {
-				HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
-				used.add(pt);
-				
-				List<GeographicPoint> pointsOnEdge = 
-						findPointsOnEdge(pointMap, info, nodes);
-				GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
+		EdgeTraces traces = traceEdges(table, intersections);
+		// all the segments share one store for their geometry
+		GeometryStore geometry = segments != null ? new GeometryStore() : null;
+		// look each road type up in the speed table once, not once per road
+		SpeedTable speeds = map.getSpeedTable();
+		int[] typeIds = new int[table.types.length];
+		for (int t = 0; t < typeIds.length; t++) {
+			typeIds[t] = speeds.typeId(table.types[t]);
+		}
+		for (int i = intersections.nextSetBit(0); i >= 0; i = intersections.nextSetBit(i + 1)) {
+			GeographicPoint pt = table.points[i];
+			for (int j = table.outStart[i]; j < table.outStart[i + 1]; j++) {
+				int line = table.outLines[j];
+				List<GeographicPoint> pointsOnEdge = traces.pointsOnEdge(table, line);
+				GeographicPoint end = table.points[traces.end(line)];
+				String roadName = table.names[table.lineName[line]];
+				String roadType = table.types[table.lineType[line]];
 				double length = getRoadLength(pt, end, pointsOnEdge);
-				map.addEdge(pt, end, info.roadName, info.roadType, length);
+				map.addEdge(pt, end, roadName, roadType, typeIds[table.lineType[line]], length, pointsOnEdge);
 
 				// If the segments variable is not null, then we 
 				// save the road geometry
@@ -354,18 +363,25 @@ public class GraphLoader
 						segs = new HashSet<RoadSegment>();
 						segments.put(pt,segs);
 					}
-					RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
-							info.roadName, info.roadType, length);
-					segs.add(seg);
+					RoadSegment seg = new RoadSegment(pt, end, geometry, 
+							geometry.add(pointsOnEdge, pt), roadName, roadType, length);
+					boolean added = segs.add(seg);
 					segs = segments.get(end);
 					if (segs == null) {
 						segs = new HashSet<RoadSegment>();
 						segments.put(end,segs);
 					}
-					segs.add(seg);
+					added |= segs.add(seg);
+					if (!added) {
+						// the same road the other way was added already
+						geometry.removeLast();
+					}
 				}
 			}
 		}
+		if (geometry != null) {
+			geometry.trimToSize();
+		}
 	}
 			
 	
@@ -384,154 +400,181 @@ public class GraphLoader
 		return dist;
 	}
 	
-	private static List<GeographicPoint>
-	findPointsOnEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-		RoadLineInfo info, Collection<GeographicPoint> nodes) 
-	{
-		List<GeographicPoint> toReturn = new LinkedList<GeographicPoint>();
-		GeographicPoint pt = info.point1;
-		GeographicPoint end = info.point2;
-		List<LinkedList<RoadLineInfo>> nextInAndOut = pointMap.get(end);
-		LinkedList<RoadLineInfo> nextLines = nextInAndOut.get(0);
-		while (!nodes.contains(end)) {
-			toReturn.add(end);
-			RoadLineInfo nextInfo = nextLines.get(0);
-			if (nextLines.size() == 2) {
-				if (nextInfo.point2.equals(pt)) {
-					nextInfo = nextLines.get(1);
-				}
-			}
-			else if (nextLines.size() != 1) {
-				System.out.println("Something went wrong building edges");
-			}
-			pt = end;
-			end = nextInfo.point2;
-			nextInAndOut = pointMap.get(end);
-			nextLines = nextInAndOut.get(0);
+	// The edges traced from every line that leaves an intersection.
+	// The points along the edge that starts with line e are
+	// points[first[e]] up to points[last[e]], or down to it if last[e]
+	// is smaller: the intersection it leaves, the points it passes
+	// through and the intersection it ends at.  Lines that do not leave
+	// an intersection have first[e] == -1.
+	private static class EdgeTraces {
+		final int[] points;
+		final int[] first;
+		final int[] last;
+		
+		EdgeTraces(int[] points, int[] first, int[] last)
+		{
+			this.points = points;
+			this.first = first;
+			this.last = last;
 		}
-		toReturn.add(end);
 		
-		return toReturn;
+		int end(int line)
+		{
+			return points[last[line]];
+		}
+		
+		// The points between the two ends of the edge, in order
+		List<GeographicPoint> pointsOnEdge(PointTable table, int line)
+		{
+			int step = last[line] > first[line] ? 1 : -1;
+			List<GeographicPoint> toReturn = new ArrayList<GeographicPoint>(Math.abs(last[line] - first[line]) - 1);
+			for (int i = first[line] + step; i != last[line]; i += step) {
+				toReturn.add(table.points[points[i]]);
+			}
+			return toReturn;
+		}
 	}
-
-	// Find the other end of the road segment.  Trace through the pointMap 
-	// starting from the first point in this info until you get to the second.
-	private static GeographicPoint
-	findEndOfEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-		RoadLineInfo info, basicgraph.Graph graph, 
-		HashMap<GeographicPoint, Integer> reverseMap) 
+	
+	// Trace every line that leaves an intersection to the intersection at
+	// the other end of its edge.  Points that are not intersections have
+	// either one line in and one out, or are passed through by the same
+	// road both ways, with two lines in and two out.  In the second case
+	// the edge back is the same points in reverse, so it is recorded
+	// along with the edge there, and every point is walked over only once.
+	private static EdgeTraces traceEdges(PointTable table, BitSet intersections)
 	{
-		
-		GeographicPoint pt = info.point1;
-		GeographicPoint end = info.point2;
-		Integer endNum = reverseMap.get(end);
-		while (endNum==null) {
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(end);
-			List<RoadLineInfo> nextLines = inAndOut.get(0);
-			RoadLineInfo nextInfo = nextLines.get(0);
-			if (nextLines.size() == 2) {
-				if (nextInfo.point2.equals(pt)) {
-					nextInfo = nextLines.get(1);
+		int[] first = new int[table.getNumLines()];
+		int[] last = new int[table.getNumLines()];
+		Arrays.fill(first, -1);
+		int[] points = new int[table.getNumLines() + 16];
+		int size = 0;
+		for (int pt = intersections.nextSetBit(0); pt >= 0; pt = intersections.nextSetBit(pt + 1)) {
+			for (int i = table.outStart[pt]; i < table.outStart[pt + 1]; i++) {
+				int line = table.outLines[i];
+				if (first[line] >= 0) {
+					// already traced as the way back of another edge
+					continue;
+				}
+				int start = size;
+				if (size == points.length) {
+					points = Arrays.copyOf(points, size * 2);
+				}
+				points[size++] = pt;
+				int prev = pt;
+				int end = table.lineTo[line];
+				int lastLine = line;
+				boolean bothWays = true;
+				while (!intersections.get(end)) {
+					if (size == points.length) {
+						points = Arrays.copyOf(points, size * 2);
+					}
+					points[size++] = end;
+					int next = table.outLines[table.outStart[end]];
+					if (table.outDegree(end) == 2) {
+						// don't turn back the way we came
+						if (table.lineTo[next] == prev) {
+							next = table.outLines[table.outStart[end] + 1];
+						}
+					}
+					else {
+						bothWays = false;
+					}
+					prev = end;
+					end = table.lineTo[next];
+					lastLine = next;
+				}
+				if (size == points.length) {
+					points = Arrays.copyOf(points, size * 2);
+				}
+				points[size++] = end;
+				first[line] = start;
+				last[line] = size - 1;
+				
+				if (bothWays && size - start > 2) {
+					for (int j = table.outStart[end]; j < table.outStart[end + 1]; j++) {
+						int back = table.outLines[j];
+						if (first[back] < 0 && table.isReverse(back, lastLine)) {
+							first[back] = size - 1;
+							last[back] = start;
+							break;
+						}
+					}
 				}
 			}
-			else if (nextLines.size() != 1) {
-				System.out.println("Something went wrong building edges");
-			}
-			pt = end;
-			end = nextInfo.point2;
-			endNum = reverseMap.get(end);
 		}
-		
-		return end;
+		return new EdgeTraces(points, first, last);
 	}
 	
 	// Find all the intersections.  Intersections are either dead ends 
 	// (1 road in and 1 road out, which are the reverse of each other)
 	// or intersections between two different roads, or where three
 	// or more segments of the same road meet.
-	private static List<GeographicPoint> 
-	findIntersections(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap) {
-		// Now find the intersections.  These are roads that do not have
-		// Exactly 1 or 2 roads coming in and out, where the roads in
-		// match the roads out.
-		List<GeographicPoint> intersections = new LinkedList<GeographicPoint>();
-		for (GeographicPoint pt : pointMap.keySet()) {
-			List<LinkedList<RoadLineInfo>> roadsInAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
-			LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
-			
-			boolean isNode = true;
-			
-			if (roadsIn.size() == 1 && roadsOut.size() == 1) {
-				// If these are the reverse of each other, then this is
-				// and intersection (dead end)
-				if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
-						roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
-						&& roadsIn.get(0).roadName.equals(roadsOut.get(0).roadName)) {
-					isNode = false;
-				}
-			}
-			if (roadsIn.size() == 2 && roadsOut.size() == 2) {
-				// If all the road segments have the same name, 
-				// And there are two pairs of reversed nodes, then 
-				// this is not an intersection because the roads pass
-				// through.
-			
-				String name = roadsIn.get(0).roadName;
-				boolean sameName = true;
-				for (RoadLineInfo info : roadsIn) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
+	// Each point is classified on its own, so the points are split up
+	// among all processors.  Each task fills whole 64-bit words of the
+	// flags, so no two tasks ever write the same word.
+	private static BitSet findIntersections(PointTable table) {
+		int numPoints = table.getNumPoints();
+		long[] flags = new long[(numPoints + 63) / 64];
+		IntStream.range(0, flags.length).parallel().forEach(word -> {
+			long bits = 0;
+			int end = Math.min(numPoints, (word + 1) * 64);
+			for (int pt = word * 64; pt < end; pt++) {
+				if (isIntersection(table, pt)) {
+					bits |= 1L << pt;
 				}
-				for (RoadLineInfo info : roadsOut) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
-				}
-				
-				RoadLineInfo in1 = roadsIn.get(0);
-				RoadLineInfo in2 = roadsIn.get(1);
-				RoadLineInfo out1 = roadsOut.get(0);
-				RoadLineInfo out2 = roadsOut.get(1);
-		
-				boolean passThrough = false;
-				if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
-						(in1.isReverse(out2) && in2.isReverse(out1))) {
-					
-					passThrough = true;
-				} 
-				
-				if (sameName && passThrough) {
-					isNode = false;
-				} 
-
-			} 
-			if (isNode) {
-				intersections.add(pt);
 			}
+			flags[word] = bits;
+		});
+		return BitSet.valueOf(flags);
+	}
+	
+	// Points are intersections unless they have exactly 1 or 2 roads
+	// coming in and out, where the roads in match the roads out.
+	private static boolean isIntersection(PointTable table, int pt)
+	{
+		int numIn = table.inDegree(pt);
+		int numOut = table.outDegree(pt);
+		if (numIn == 1 && numOut == 1) {
+			// If these are the reverse of each other, then this is
+			// and intersection (dead end)
+			int in = table.inLines[table.inStart[pt]];
+			int out = table.outLines[table.outStart[pt]];
+			boolean reversed = table.lineFrom[in] == table.lineTo[out] 
+					&& table.lineTo[in] == table.lineFrom[out];
+			return reversed || table.lineName[in] != table.lineName[out];
+		}
+		if (numIn == 2 && numOut == 2) {
+			// If all the road segments have the same name, 
+			// And there are two pairs of reversed nodes, then 
+			// this is not an intersection because the roads pass
+			// through.
+			int in1 = table.inLines[table.inStart[pt]];
+			int in2 = table.inLines[table.inStart[pt] + 1];
+			int out1 = table.outLines[table.outStart[pt]];
+			int out2 = table.outLines[table.outStart[pt] + 1];
+			int name = table.lineName[in1];
+			boolean sameName = table.lineName[in2] == name 
+					&& table.lineName[out1] == name && table.lineName[out2] == name;
+			boolean passThrough = (table.isReverse(in1, out1) && table.isReverse(in2, out2)) ||
+					(table.isReverse(in1, out2) && table.isReverse(in2, out1));
+			return !(sameName && passThrough);
 		}
-		return intersections;
+		return true;
 	}
 		
-	// Build the map from points to lists of lists of lines.
-	// The map returned is indexed by a GeographicPoint.  The values
-	// are lists of length two where each entry in the list is a list.
-	// The first list stores the outgoing roads while the second 
-	// stores the outgoing roads.
-	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
-	buildPointMapOneWay(String filename)
+	// Read the lines of a road data file into a table of points, 
+	// numbered in the order they first appear, and the lines 
+	// in and out of each one.
+	private static PointTable buildPointTable(String filename)
 	{
 		BufferedReader reader = null;
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
+		PointTable.Builder table = new PointTable.Builder();
 		try {
             String nextLine;
             reader = new BufferedReader(new FileReader(filename));
-            // Read the lines out of the file and put them in a HashMap by points
             while ((nextLine = reader.readLine()) != null) {
             	RoadLineInfo line = splitInputString(nextLine);
-            	addToPointsMapOneWay(line, pointMap);
+            	table.add(line.point1, line.point2, line.roadName, line.roadType);
             }
             reader.close();
         } catch (IOException e) {
@@ -539,35 +582,7 @@ public class GraphLoader
             e.printStackTrace();
         }
 		
-		return pointMap;
-	}
-
-
-	// Add the next line read from the file to the points map.
-	private static void 
-	addToPointsMapOneWay(RoadLineInfo line,
-						HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> map)
-	{
-		List<LinkedList<RoadLineInfo>> pt1Infos = map.get(line.point1);
-		if (pt1Infos == null) {
-			pt1Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point1, pt1Infos);
-		}
-		List<RoadLineInfo> outgoing = pt1Infos.get(0);
-		outgoing.add(line);
-		
-		List<LinkedList<RoadLineInfo>> pt2Infos = map.get(line.point2);
-		if (pt2Infos == null) {
-			pt2Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point2, pt2Infos);
-		}
-		List<RoadLineInfo> incoming = pt2Infos.get(1);
-		incoming.add(line);
-		
+		return table.build();
 	}
 	
 	// Split the input string into the line information
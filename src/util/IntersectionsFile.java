@@ -0,0 +1,256 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import geography.GeographicPoint;
+
+/**
+ * Reads and writes intersections files: one line per road between two
+ * intersections, giving the locations of the intersections at its ends.
+ *
+ * Files are written as four numbers per line, separated by spaces:
+ * lat1 lon1 lat2 lon2
+ * Coordinates with at most 7 decimals, the precision of OpenStreetMap,
+ * are formatted by hand straight into a reused ByteBuffer, which is
+ * written out through a FileChannel; other values fall back to
+ * Double.toString. Either way, reading a file back gives exactly the
+ * doubles that were written.
+ *
+ * The reader also accepts the older format, written with
+ * GeographicPoint.toString:
+ * Lat: lat1, Lon: lon1 Lat: lat2, Lon: lon2
+ * It takes the first four numbers on every line and ignores everything
+ * else, and parses plain decimals without creating any strings.
+ *
+ * @author Hao Zhang
+ */
+public class IntersectionsFile {
+	private static final int BUFFER_SIZE = 1 << 16;
+	// the longest line a Writer writes: four numbers from Double.toString and their separators
+	private static final int MAX_LINE = 4 * 24 + 4;
+	private static final int DECIMALS = 7;
+	private static final double SCALE = 1e7;
+	// exact powers of ten, up to the largest that is exact as a double
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	/**
+	 * Receives the roads read from an intersections file.
+	 */
+	public interface Visitor {
+		void road(double lat1, double lon1, double lat2, double lon2);
+	}
+
+	/**
+	 * Writes an intersections file, one road at a time.
+	 */
+	public static class Writer implements AutoCloseable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final byte[] digits = new byte[20];
+
+		/**
+		 * Create the file, or empty it if it exists.
+		 */
+		public Writer(String filename) throws IOException
+		{
+			channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+
+		/**
+		 * Write the road from one intersection to another.
+		 */
+		public void write(GeographicPoint from, GeographicPoint to) throws IOException
+		{
+			if (buffer.remaining() < MAX_LINE)
+				flush();
+			put(from.getX());
+			buffer.put((byte) ' ');
+			put(from.getY());
+			buffer.put((byte) ' ');
+			put(to.getX());
+			buffer.put((byte) ' ');
+			put(to.getY());
+			buffer.put((byte) '\n');
+		}
+
+		private void put(double value)
+		{
+			long scaled = Math.round(value * SCALE);
+			// only if reading it back gives value again; this also rules out
+			// NaN and values too large for a long
+			if (scaled / SCALE != value || Math.abs(scaled) >= 1L << 53)
+			{
+				buffer.put(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+				return;
+			}
+			if (scaled < 0)
+			{
+				buffer.put((byte) '-');
+				scaled = -scaled;
+			}
+			long whole = scaled / (long) SCALE;
+			long fraction = scaled % (long) SCALE;
+			int n = 0;
+			do {
+				digits[n++] = (byte) ('0' + whole % 10);
+				whole /= 10;
+			} while (whole > 0);
+			while (n > 0)
+				buffer.put(digits[--n]);
+			if (fraction == 0)
+				return;
+			buffer.put((byte) '.');
+			int numDecimals = DECIMALS;
+			while (fraction % 10 == 0)
+			{
+				fraction /= 10;
+				numDecimals--;
+			}
+			for (int i = numDecimals - 1; i >= 0; i--)
+			{
+				digits[i] = (byte) ('0' + fraction % 10);
+				fraction /= 10;
+			}
+			buffer.put(digits, 0, numDecimals);
+		}
+
+		private void flush() throws IOException
+		{
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		/**
+		 * Write out what is left and close the file.
+		 */
+		public void close() throws IOException
+		{
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Read an intersections file in either format.
+	 * @param filename The file to read
+	 * @param visitor Receives every road in the file, in order
+	 * @return The number of roads read
+	 * @throws IOException If the file cannot be read, or a line that is
+	 *   not blank does not hold four numbers.
+	 */
+	public static int read(String filename, Visitor visitor) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			// the number being read, which may span two reads of the file
+			byte[] token = new byte[64];
+			int tokenLength = 0;
+			double[] numbers = new double[4];
+			int count = 0;
+			int line = 1;
+			int roads = 0;
+			boolean more = true;
+			while (more)
+			{
+				more = channel.read(buffer) >= 0;
+				buffer.flip();
+				// at the end of the file, behave as if the last line ended in a newline
+				int limit = more ? buffer.limit() : buffer.limit() + 1;
+				for (int i = 0; i < limit; i++)
+				{
+					byte c = i < buffer.limit() ? buffer.get(i) : (byte) '\n';
+					if (isNumberChar(c) && (tokenLength > 0 || c != 'e' && c != 'E'))
+					{
+						if (tokenLength == token.length)
+							throw new IOException("Number too long on line " + line + " of " + filename);
+						token[tokenLength++] = c;
+						continue;
+					}
+					if (tokenLength > 0)
+					{
+						// only the first four numbers on a line count
+						if (count < 4)
+							numbers[count] = parse(token, tokenLength, line, filename);
+						count++;
+						tokenLength = 0;
+					}
+					if (c == '\n')
+					{
+						if (count >= 4)
+						{
+							visitor.road(numbers[0], numbers[1], numbers[2], numbers[3]);
+							roads++;
+						}
+						else if (count > 0)
+							throw new IOException("Expected four numbers on line " + line + " of " + filename);
+						count = 0;
+						line++;
+					}
+				}
+				buffer.clear();
+			}
+			return roads;
+		}
+	}
+
+	private static boolean isNumberChar(byte c)
+	{
+		return c >= '0' && c <= '9' || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+	}
+
+	// Parse a decimal number.  Plain decimals with few enough digits are
+	// an exact integer divided by an exact power of ten, which rounds the
+	// same way as Double.parseDouble; anything else goes to parseDouble.
+	private static double parse(byte[] token, int length, int line, String filename) throws IOException
+	{
+		int i = 0;
+		boolean negative = token[0] == '-';
+		if (token[0] == '-' || token[0] == '+')
+			i++;
+		long mantissa = 0;
+		int numDigits = 0;
+		int decimals = -1;
+		boolean plain = i < length;
+		for (; i < length && plain; i++)
+		{
+			byte c = token[i];
+			if (c >= '0' && c <= '9')
+			{
+				mantissa = mantissa * 10 + (c - '0');
+				numDigits++;
+				if (decimals >= 0)
+					decimals++;
+			}
+			else if (c == '.' && decimals < 0)
+				decimals = 0;
+			else
+				plain = false;
+		}
+		if (plain && numDigits > 0 && numDigits <= 15 && decimals < POWERS_OF_TEN.length)
+		{
+			double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+			return negative ? -value : value;
+		}
+		try {
+			return Double.parseDouble(new String(token, 0, length, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad number on line " + line + " of " + filename);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from primitive long keys to primitive long
+ * values.  It is used wherever we need to index a large number of ids
+ * (e.g. OSM node ids) without boxing every key and value into objects.
+ *
+ * Long.MIN_VALUE is reserved as the empty-slot marker and cannot be used
+ * as a key.
+ *
+ * @author Hao Zhang
+ */
+public class LongLongHashMap {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private long[] keys;
+	private long[] values;
+	private int size;
+	private int resizeAt;
+
+	/**
+	 * Create a new empty map
+	 */
+	public LongLongHashMap() {
+		this(1024);
+	}
+
+	/**
+	 * Create a new empty map sized for the expected number of entries
+	 * @param expectedSize The number of entries expected to be added
+	 */
+	public LongLongHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Report the number of entries in the map
+	 * @return The number of keys stored in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Associate value with key, replacing any previous value.
+	 * @param key The key, which must not be Long.MIN_VALUE
+	 * @param value The value to store
+	 */
+	public void put(long key, long value) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("Long.MIN_VALUE cannot be used as a key.");
+		}
+		int slot = findSlot(key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			values[slot] = value;
+			if (++size >= resizeAt) {
+				rehash(keys.length << 1);
+			}
+		}
+		else {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Associate value with key only if the key is not already present.
+	 * @param key The key, which must not be Long.MIN_VALUE
+	 * @param value The value to store
+	 * @return true if the key was added, false if it was already present.
+	 */
+	public boolean putIfAbsent(long key, long value) {
+		if (containsKey(key)) {
+			return false;
+		}
+		put(key, value);
+		return true;
+	}
+
+	/**
+	 * Look up the value stored for a key.
+	 * @param key The key to look up
+	 * @param defaultValue The value returned when the key is absent
+	 * @return The stored value, or defaultValue if key is not in the map.
+	 */
+	public long get(long key, long defaultValue) {
+		if (key == EMPTY) {
+			return defaultValue;
+		}
+		int slot = findSlot(key);
+		return keys[slot] == EMPTY ? defaultValue : values[slot];
+	}
+
+	/**
+	 * Test whether the map contains a key.
+	 * @param key The key to look up
+	 * @return true if the key is in the map, false otherwise.
+	 */
+	public boolean containsKey(long key) {
+		return key != EMPTY && keys[findSlot(key)] != EMPTY;
+	}
+
+	/**
+	 * Remove all entries, keeping the allocated capacity.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	// Find the slot holding key, or the empty slot where it would go.
+	private int findSlot(long key) {
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	// Spread the bits of the key so sequential ids do not cluster.
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = findSlot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
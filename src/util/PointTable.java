@@ -0,0 +1,150 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import geography.GeographicPoint;
+
+/**
+ * The points and lines of a road data file, numbered in the order they
+ * first appear in the file.
+ *
+ * Each point is hashed once, when the file is read; from then on points
+ * are ints, and equal points have equal ids. Road names and types are
+ * numbered the same way, so two lines are on the same road exactly when
+ * their ids match. The lines leaving and entering each point are kept in
+ * compressed adjacency arrays, in the order the lines appear in the file:
+ * the lines leaving point p are outLines[outStart[p]] up to, but not
+ * including, outLines[outStart[p + 1]], and likewise for inLines.
+ *
+ * @author Hao Zhang
+ */
+final class PointTable {
+	// point id -> point
+	final GeographicPoint[] points;
+	// line id -> its end points, and the ids of its road name and type
+	final int[] lineFrom;
+	final int[] lineTo;
+	final int[] lineName;
+	final int[] lineType;
+	// name id -> road name, and type id -> road type
+	final String[] names;
+	final String[] types;
+	// point id -> where its lines start in outLines and inLines
+	final int[] outStart;
+	final int[] outLines;
+	final int[] inStart;
+	final int[] inLines;
+
+	private PointTable(Builder b)
+	{
+		int n = b.points.size();
+		int m = b.numLines;
+		points = b.points.toArray(new GeographicPoint[n]);
+		lineFrom = Arrays.copyOf(b.from, m);
+		lineTo = Arrays.copyOf(b.to, m);
+		lineName = Arrays.copyOf(b.name, m);
+		lineType = Arrays.copyOf(b.type, m);
+		names = b.names.toArray(new String[b.names.size()]);
+		types = b.types.toArray(new String[b.types.size()]);
+		outStart = new int[n + 1];
+		inStart = new int[n + 1];
+		outLines = new int[m];
+		inLines = new int[m];
+		bucket(lineFrom, outStart, outLines);
+		bucket(lineTo, inStart, inLines);
+	}
+
+	// Counting sort of the line ids by end point, keeping file order within each point.
+	private static void bucket(int[] end, int[] start, int[] lines)
+	{
+		for (int e = 0; e < end.length; e++)
+			start[end[e] + 1]++;
+		for (int p = 1; p < start.length; p++)
+			start[p] += start[p - 1];
+		int[] next = Arrays.copyOf(start, start.length - 1);
+		for (int e = 0; e < end.length; e++)
+			lines[next[end[e]]++] = e;
+	}
+
+	int getNumPoints()
+	{
+		return points.length;
+	}
+
+	int getNumLines()
+	{
+		return lineFrom.length;
+	}
+
+	int outDegree(int p)
+	{
+		return outStart[p + 1] - outStart[p];
+	}
+
+	int inDegree(int p)
+	{
+		return inStart[p + 1] - inStart[p];
+	}
+
+	/**
+	 * @return true if line e runs between the same points as line f, in
+	 *   the other direction, on the same road.
+	 */
+	boolean isReverse(int e, int f)
+	{
+		return lineFrom[e] == lineTo[f] && lineTo[e] == lineFrom[f]
+				&& lineName[e] == lineName[f] && lineType[e] == lineType[f];
+	}
+
+	/**
+	 * Collects the lines of a file one at a time.
+	 */
+	static class Builder {
+		private final HashMap<GeographicPoint, Integer> pointIds = new HashMap<GeographicPoint, Integer>();
+		private final ArrayList<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		private final HashMap<String, Integer> nameIds = new HashMap<String, Integer>();
+		private final ArrayList<String> names = new ArrayList<String>();
+		private final HashMap<String, Integer> typeIds = new HashMap<String, Integer>();
+		private final ArrayList<String> types = new ArrayList<String>();
+		private int[] from = new int[1024];
+		private int[] to = new int[1024];
+		private int[] name = new int[1024];
+		private int[] type = new int[1024];
+		private int numLines;
+
+		void add(GeographicPoint point1, GeographicPoint point2, String roadName, String roadType)
+		{
+			if (numLines == from.length)
+			{
+				from = Arrays.copyOf(from, numLines * 2);
+				to = Arrays.copyOf(to, numLines * 2);
+				name = Arrays.copyOf(name, numLines * 2);
+				type = Arrays.copyOf(type, numLines * 2);
+			}
+			from[numLines] = id(point1, pointIds, points);
+			to[numLines] = id(point2, pointIds, points);
+			name[numLines] = id(roadName, nameIds, names);
+			type[numLines] = id(roadType, typeIds, types);
+			numLines++;
+		}
+
+		private static <T> int id(T key, HashMap<T, Integer> ids, ArrayList<T> keys)
+		{
+			Integer id = ids.get(key);
+			if (id == null)
+			{
+				id = keys.size();
+				ids.put(key, id);
+				keys.add(key);
+			}
+			return id;
+		}
+
+		PointTable build()
+		{
+			return new PointTable(this);
+		}
+	}
+}
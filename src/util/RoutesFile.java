@@ -0,0 +1,305 @@
+package util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import basicgraph.Graph;
+
+/**
+ * Reads airline route files, in the OpenFlights format, into a
+ * basicgraph.Graph: one vertex per airport, labeled with its code, and
+ * one edge per route. Each line of the file is one route:
+ * Airline, AirlineID, Source airport, Source airport ID,
+ * Destination airport, Destination airport ID, Codeshare, Stops, Equipment
+ * where Equipment is a list of aircraft codes separated by spaces.
+ *
+ * The whole file is read into one byte array and split into chunks of
+ * whole lines, which are parsed in parallel. Fields are found by their
+ * offsets in the array, without creating any strings, and the filters
+ * compare the bytes in place. Each chunk gives the offsets of the airport
+ * codes of the routes it keeps; these are then added to the graph in the
+ * order of the file, so the vertex numbers do not depend on the
+ * threads. Airport codes of up to 7 bytes are looked up packed into a
+ * long, and a String is only created for each new airport's label.
+ *
+ * A RoutesFile with no filters set keeps every route. Filters of
+ * different kinds must all match for a route to be kept.
+ *
+ * @author Hao Zhang
+ */
+public class RoutesFile {
+	private static final int CHUNK_SIZE = 1 << 20;
+	private static final int NUM_FIELDS = 9;
+	private static final int AIRLINE = 0;
+	private static final int SOURCE = 2;
+	private static final int DESTINATION = 4;
+	private static final int STOPS = 7;
+	private static final int EQUIPMENT = 8;
+
+	private int maxStops = -1;
+	private byte[][] airlines;
+	private byte[][] equipment;
+
+	/**
+	 * Keep only routes with at most maxStops stops. Routes whose number of
+	 * stops is missing are dropped.
+	 * @return This RoutesFile.
+	 */
+	public RoutesFile maxStops(int maxStops)
+	{
+		if (maxStops < 0)
+			throw new IllegalArgumentException("maxStops must not be negative");
+		this.maxStops = maxStops;
+		return this;
+	}
+
+	/**
+	 * Keep only nonstop routes.
+	 * @return This RoutesFile.
+	 */
+	public RoutesFile nonstop()
+	{
+		return maxStops(0);
+	}
+
+	/**
+	 * Keep only routes flown by one of the given airlines.
+	 * @param codes Airline codes, as in the first field of the file
+	 * @return This RoutesFile.
+	 */
+	public RoutesFile airlines(String... codes)
+	{
+		airlines = toBytes(codes);
+		return this;
+	}
+
+	/**
+	 * Keep only routes flown with at least one of the given aircraft.
+	 * @param codes Aircraft codes, as in the last field of the file
+	 * @return This RoutesFile.
+	 */
+	public RoutesFile equipment(String... codes)
+	{
+		equipment = toBytes(codes);
+		return this;
+	}
+
+	private static byte[][] toBytes(String[] codes)
+	{
+		byte[][] bytes = new byte[codes.length][];
+		for (int i = 0; i < codes.length; i++)
+			bytes[i] = codes[i].getBytes(StandardCharsets.US_ASCII);
+		return bytes;
+	}
+
+	/**
+	 * Read the routes in a file that pass the filters into graph.
+	 * The labels of graph are initialized first, so it should be empty.
+	 * @param filename The file to read
+	 * @param graph The graph to add airports and routes to
+	 * @return The number of routes added
+	 * @throws IOException If the file cannot be read, or a line that is
+	 *   not blank has fewer than the source and destination fields.
+	 */
+	public int load(String filename, Graph graph) throws IOException
+	{
+		byte[] bytes = Files.readAllBytes(Paths.get(filename));
+		// chunk i is bytes[starts[i]] up to starts[i + 1], ending after a newline
+		List<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		for (int next = CHUNK_SIZE; next < bytes.length; next += CHUNK_SIZE)
+		{
+			while (next < bytes.length && bytes[next - 1] != '\n')
+				next++;
+			starts.add(next);
+		}
+		if (starts.get(starts.size() - 1) < bytes.length)
+			starts.add(bytes.length);
+		int numChunks = starts.size() - 1;
+		int[][] routes = new int[numChunks][];
+		IOException[] errors = new IOException[numChunks];
+		IntStream.range(0, numChunks).parallel().forEach(i -> {
+			try {
+				routes[i] = parse(bytes, starts.get(i), starts.get(i + 1));
+			} catch (IOException e) {
+				errors[i] = e;
+			}
+		});
+		for (IOException e : errors)
+		{
+			if (e != null)
+				throw new IOException(e.getMessage() + " of " + filename, e);
+		}
+
+		graph.initializeLabels();
+		HashMap<Long, Integer> shortCodes = new HashMap<Long, Integer>();
+		int numRoutes = 0;
+		for (int[] chunk : routes)
+		{
+			for (int r = 0; r < chunk.length; r += 4)
+			{
+				int from = vertex(bytes, chunk[r], chunk[r + 1], graph, shortCodes);
+				int to = vertex(bytes, chunk[r + 2], chunk[r + 3], graph, shortCodes);
+				graph.addEdge(from, to);
+				numRoutes++;
+			}
+		}
+		return numRoutes;
+	}
+
+	// The vertex of the airport with the code bytes[start] up to end,
+	// added to graph if it is new.
+	private static int vertex(byte[] bytes, int start, int end, Graph graph, HashMap<Long, Integer> shortCodes)
+	{
+		long key = -1;
+		if (end - start <= 7)
+		{
+			// the length goes in the top byte, so codes with trailing zero bytes stay distinct
+			key = (long) (end - start) << 56;
+			for (int i = start; i < end; i++)
+				key |= (long) (bytes[i] & 0xFF) << (8 * (i - start));
+			Integer v = shortCodes.get(key);
+			if (v != null)
+				return v;
+		}
+		String label = new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+		int v;
+		if (graph.hasVertex(label))
+			v = graph.getIndex(label);
+		else
+		{
+			v = graph.addVertex();
+			graph.addLabel(v, label);
+		}
+		if (key >= 0)
+			shortCodes.put(key, v);
+		return v;
+	}
+
+	// Parse the lines from start up to end, which ends a line or the file.
+	// Returns four offsets per kept route: the start and end of its
+	// source code, then of its destination code.
+	private int[] parse(byte[] bytes, int start, int end) throws IOException
+	{
+		int[] routes = new int[64];
+		int numInts = 0;
+		// field i of the line is fieldStart[i] up to fieldEnd[i]
+		int[] fieldStart = new int[NUM_FIELDS];
+		int[] fieldEnd = new int[NUM_FIELDS];
+		int lineStart = start;
+		while (lineStart < end)
+		{
+			int lineEnd = lineStart;
+			while (lineEnd < end && bytes[lineEnd] != '\n')
+				lineEnd++;
+			int next = lineEnd + 1;
+			if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r')
+				lineEnd--;
+			int numFields = 0;
+			int fieldFrom = lineStart;
+			for (int i = lineStart; i <= lineEnd && numFields < NUM_FIELDS; i++)
+			{
+				if (i == lineEnd || bytes[i] == ',')
+				{
+					fieldStart[numFields] = fieldFrom;
+					fieldEnd[numFields++] = i;
+					fieldFrom = i + 1;
+				}
+			}
+			if (lineEnd > lineStart && numFields <= DESTINATION)
+				throw new IOException("Expected a source and destination on line " + lineNumber(bytes, lineStart));
+			if (lineEnd > lineStart && keep(bytes, fieldStart, fieldEnd, numFields))
+			{
+				if (numInts == routes.length)
+					routes = Arrays.copyOf(routes, numInts * 2);
+				routes[numInts++] = fieldStart[SOURCE];
+				routes[numInts++] = fieldEnd[SOURCE];
+				routes[numInts++] = fieldStart[DESTINATION];
+				routes[numInts++] = fieldEnd[DESTINATION];
+			}
+			lineStart = next;
+		}
+		return Arrays.copyOf(routes, numInts);
+	}
+
+	private boolean keep(byte[] bytes, int[] fieldStart, int[] fieldEnd, int numFields)
+	{
+		if (maxStops >= 0)
+		{
+			if (numFields <= STOPS)
+				return false;
+			int stops = parseStops(bytes, fieldStart[STOPS], fieldEnd[STOPS]);
+			if (stops < 0 || stops > maxStops)
+				return false;
+		}
+		if (airlines != null && !matchesAny(bytes, fieldStart[AIRLINE], fieldEnd[AIRLINE], airlines))
+			return false;
+		if (equipment != null)
+		{
+			if (numFields <= EQUIPMENT)
+				return false;
+			boolean found = false;
+			int from = fieldStart[EQUIPMENT];
+			for (int i = from; i <= fieldEnd[EQUIPMENT] && !found; i++)
+			{
+				if (i == fieldEnd[EQUIPMENT] || bytes[i] == ' ')
+				{
+					found = i > from && matchesAny(bytes, from, i, equipment);
+					from = i + 1;
+				}
+			}
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	// The number of stops, or -1 if the field is not a number.
+	private static int parseStops(byte[] bytes, int start, int end)
+	{
+		if (start == end || end - start > 9)
+			return -1;
+		int stops = 0;
+		for (int i = start; i < end; i++)
+		{
+			if (bytes[i] < '0' || bytes[i] > '9')
+				return -1;
+			stops = stops * 10 + (bytes[i] - '0');
+		}
+		return stops;
+	}
+
+	private static boolean matchesAny(byte[] bytes, int start, int end, byte[][] codes)
+	{
+		for (byte[] code : codes)
+		{
+			if (code.length != end - start)
+				continue;
+			int i = 0;
+			while (i < code.length && code[i] == bytes[start + i])
+				i++;
+			if (i == code.length)
+				return true;
+		}
+		return false;
+	}
+
+	// Only used to report errors, so it counts the lines from the start.
+	private static int lineNumber(byte[] bytes, int offset)
+	{
+		int line = 1;
+		for (int i = 0; i < offset; i++)
+		{
+			if (bytes[i] == '\n')
+				line++;
+		}
+		return line;
+	}
+}